@@ -0,0 +1,162 @@
+package edu.arizona.ve.algorithm;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import edu.arizona.ve.corpus.CorpusWriter;
+import edu.arizona.ve.corpus.CutPoints;
+import edu.arizona.ve.trie.PositionStatistics;
+
+/**
+ * Segments the corpus of a VotingExperts a chunk of tokens at a time and
+ * writes each chunk through CorpusWriter as soon as it and the chunks
+ * before it are done, so the vote array of the whole corpus is never
+ * held in memory.
+ *
+ * A chunk votes on its own windows and on the windowSize + 2 windows of
+ * the neighbouring chunks that reach its cut points or the ones next to
+ * them, so every vote the local max check reads is complete and the
+ * result is the same as runAlgorithm. The chunks run in parallel on a
+ * fork-join pool (one thread per processor unless setParallelism says
+ * otherwise), sharing the experts of the VotingExperts and their tries
+ * (which must be safe to read concurrently, as the ones in
+ * edu.arizona.ve.experts are).
+ */
+public class ChunkedSegmenter {
+
+	public static int DEFAULT_CHUNK_SIZE = 1 << 16;
+
+	/** Number of chunks segmented at once unless setParallelism is called */
+	public static int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+	protected VotingExperts _ve;
+	protected int _chunkSize = DEFAULT_CHUNK_SIZE;
+	protected int _parallelism = DEFAULT_PARALLELISM;
+
+	public ChunkedSegmenter(VotingExperts ve) {
+		_ve = ve;
+	}
+
+	/** Number of tokens in each chunk */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize < 1)
+			throw new RuntimeException("Bad chunk size: " + chunkSize);
+		_chunkSize = chunkSize;
+	}
+
+	public int getChunkSize() {
+		return _chunkSize;
+	}
+
+	/** Number of threads segmenting chunks */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new RuntimeException("Bad parallelism: " + parallelism);
+		_parallelism = parallelism;
+	}
+
+	public int getParallelism() {
+		return _parallelism;
+	}
+
+	/**
+	 * Segments the corpus into output/fileName, in the format of
+	 * CorpusWriter.writeCorpus.
+	 */
+	public void segment(String fileName, boolean useLocalMax, boolean spaces) {
+		try {
+			PrintStream out = new PrintStream("output/" + fileName);
+			segment(out, useLocalMax, spaces);
+			out.close();
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public void segment(PrintStream out, boolean useLocalMax, boolean spaces) {
+		List<String> corpus = _ve._corpus;
+		int numChunks = (corpus.size() + _chunkSize - 1) / _chunkSize;
+
+		// at most a couple of finished chunks per thread wait to be written
+		int parallelism = _parallelism;
+		ForkJoinPool pool = VotingExperts.getPool(parallelism);
+		Deque<Future<CutPoints>> pending = new ArrayDeque<Future<CutPoints>>();
+		int next = 0;
+		for (int written = 0; written < numChunks; written++) {
+			while (next < numChunks && pending.size() < 2 * parallelism) {
+				pending.add(pool.submit(new Chunk(next * _chunkSize, Math.min((next + 1) * _chunkSize, corpus.size()), useLocalMax)));
+				next++;
+			}
+
+			int from = written * _chunkSize;
+			int to = Math.min(from + _chunkSize, corpus.size());
+			CorpusWriter.writeTokens(out, corpus, from, to, get(pending.remove()), spaces);
+		}
+		out.flush();
+	}
+
+	private static CutPoints get(Future<CutPoints> chunk) {
+		try {
+			return chunk.get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/** The cut points after tokens [from, to), cut i at bit i - from */
+	private class Chunk implements Callable<CutPoints> {
+		int from, to;
+		boolean useLocalMax;
+
+		Chunk(int from, int to, boolean useLocalMax) {
+			this.from = from;
+			this.to = to;
+			this.useLocalMax = useLocalMax;
+		}
+
+		public CutPoints call() {
+			VotingExperts ve = _ve;
+			int windowSize = ve._windowSize;
+			int numCutPoints = ve._corpus.size() - 1;
+			int numWindows = numCutPoints - windowSize + 2;
+
+			PositionStatistics stats = ve._statistics;
+			if (stats != null && (stats.size() != ve._corpus.size() || stats.getMaxLength() < windowSize))
+				stats = null;
+
+			// window i votes for cut points i-1 .. i+windowSize-1, and
+			// the cut points from-1 .. to are the ones read here
+			int first = Math.max(from - windowSize, 0);
+			int last = Math.min(to + 2, Math.max(numWindows, 0));
+			int base = first - 1;
+			int[] vote = new int[to + windowSize + 1 - base];
+			if (first < last)
+				ve.voteWindows(ve._experts, first, last, stats, vote, base);
+
+			for (int k = 0; k < ve._fixedVotes.size(); k++) {
+				int[] votes = ve._fixedVotes.get(k);
+				int weight = ve._fixedWeights.get(k);
+				for (int i = Math.max(from - 1, 0); i <= to && i < numCutPoints; i++) {
+					vote[i - base] += weight * votes[i];
+				}
+			}
+
+			int end = Math.min(to, numCutPoints);
+			CutPoints cuts = new CutPoints(Math.max(end - from, 0));
+			for (int i = from; i < end; i++) {
+				if (ve.isCut(vote, base, i, numCutPoints, useLocalMax))
+					cuts.set(i - from);
+			}
+			return cuts;
+		}
+	}
+}
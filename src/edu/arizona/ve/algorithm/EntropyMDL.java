@@ -12,10 +12,12 @@ import java.util.List;
 import edu.arizona.ve.algorithm.EntropyMDL.SimulationResult.SimulationType;
 import edu.arizona.ve.corpus.Corpus;
 import edu.arizona.ve.corpus.Corpus.CorpusType;
+import edu.arizona.ve.corpus.SymbolTable;
 import edu.arizona.ve.evaluation.EvaluationResults;
 import edu.arizona.ve.evaluation.Evaluator;
 import edu.arizona.ve.mdl.MDL;
 import edu.arizona.ve.trie.Trie;
+import edu.arizona.ve.trie.TriePair;
 import edu.arizona.ve.util.NF;
 import edu.arizona.ve.util.Stats;
 
@@ -44,8 +46,9 @@ public class EntropyMDL {
 		_maxLen = maxLen;
 		
 		// Build tries
-		_forwardTrie = corpus.makeForwardTrie(maxLen+1);
-		_backwardTrie = corpus.makeBackwardTrie(maxLen+1);	
+		TriePair tries = TriePair.start(corpus, maxLen+1);
+		_forwardTrie = tries.getForward();
+		_backwardTrie = tries.getBackward();
 	}
 	
 	
@@ -144,7 +147,7 @@ public class EntropyMDL {
 	private void accumulateEntropy(double[] H, int winLen,
 			Corpus c, Trie fTrie, Trie bTrie) {
 		List<String> fChars = c.getCleanChars();
-		List<String> bChars = c.getReverseCorpus().getCleanChars();
+		List<String> bChars = c.getReversed();
 		
 		double fh, bh;
 		int m = 0, n = m + winLen;
@@ -922,15 +925,22 @@ public class EntropyMDL {
 		
 		public List<Integer> findInstancesInCorpus(List<String> token) {
 			List<Integer> indx = new ArrayList<Integer>();
-			List<String> chars = corpus.getCleanChars();
-			int max = chars.size() - token.size();
+			int[] chars = corpus.getTokens();
+			int[] ids = new int[token.size()];
+			for (int k = 0; k < ids.length; k++) {
+				ids[k] = corpus.getSymbols().lookup(token.get(k));
+				if (ids[k] == SymbolTable.NONE) 
+					return indx;
+			}
+			
+			int max = chars.length - ids.length;
 			int j, k, n;
 			test:
 			for (int i = 0; i <= max; i++) {
-				n = token.size();
+				n = ids.length;
 				j = i; k = 0;
 				while (n-- > 0) {
-					if (!chars.get(j++).equals(token.get(k++))) {
+					if (chars[j++] != ids[k++]) {
 						continue test;
 					}
 				}
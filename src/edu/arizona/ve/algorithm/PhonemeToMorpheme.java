@@ -4,10 +4,11 @@ import java.util.List;
 
 import edu.arizona.ve.corpus.Corpus;
 import edu.arizona.ve.corpus.Corpus.CorpusType;
+import edu.arizona.ve.corpus.CutPoints;
 import edu.arizona.ve.evaluation.Evaluator;
 import edu.arizona.ve.trie.Trie;
+import edu.arizona.ve.trie.TriePair;
 import edu.arizona.ve.util.NF;
-import edu.arizona.ve.util.Utils;
 
 /**
 *
@@ -31,8 +32,8 @@ public class PhonemeToMorpheme {
 	public void runAlgorithm(double threshold) {
 		boolean[] forward = runForward(threshold);
 		boolean[] backward = runBackward(threshold);
-		boolean[] combined = Utils.combineUnion(forward, backward);
-		setCutPoints(combined);
+		CutPoints combined = CutPoints.union(CutPoints.fromArray(forward), CutPoints.fromArray(backward).reverse());
+		setCutPoints(combined.toArray());
 	}
 	
 	private double hf(int m, int n) {
@@ -67,11 +68,11 @@ public class PhonemeToMorpheme {
 		return cuts;
 	}
 	
-	// To use Utils.combine, this should return a reversed set of cutPoints
+	// The cut points of the reversed corpus, so they are reversed before the union
 	private boolean[] runBackward(double threshold) {
 		boolean[] cuts = new boolean[getCutPoints().length];
 		
-		List<String> revChars = _corpus.getReverseCorpus().getCleanChars();
+		List<String> revChars = _corpus.getReversed();
 		
 		int m = 0, n = 1;
 		
@@ -99,8 +100,9 @@ public class PhonemeToMorpheme {
 //		Corpus c = Corpus.autoLoad("orwell-short", CorpusType.LETTER, false);
 		Corpus c = Corpus.autoLoad("br87", CorpusType.LETTER, true);
 		int maxLen = 7;
-		Trie f = Trie.buildTrie(c, maxLen+1);
-		Trie b = Trie.buildTrie(c.getReverseCorpus(), maxLen+1);
+		TriePair tries = TriePair.start(c, maxLen+1);
+		Trie f = tries.getForward();
+		Trie b = tries.getBackward();
 		
 //		Corpus morph = Corpus.autoLoad("inuktitut-morph", "case");
 		
@@ -0,0 +1,194 @@
+package edu.arizona.ve.algorithm;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import edu.arizona.ve.experts.Expert;
+
+/**
+ * Voting Experts over a stream of tokens that is never held in memory as a
+ * whole. Tokens are pushed one at a time; each window is voted on as soon
+ * as its last token arrives, and the decision for a cut point is handed to
+ * the listener once no later window can vote for it (or, with the local
+ * max check, for the position after it).
+ *
+ * Only the last windowSize tokens and the votes of the positions still
+ * waiting for a decision are kept, so memory does not grow with the
+ * stream. The decision for the cut after token k comes when token
+ * k + windowSize + 1 (k + windowSize without the local max check) is
+ * pushed. The decisions are the same as VotingExperts.runAlgorithm over
+ * the whole stream with the same experts, window size and threshold.
+ */
+public class StreamingVotingExperts {
+
+	/** Receives the decision for every cut point, in order */
+	public interface CutListener {
+		/**
+		 * @param position the cut point after token position of the stream
+		 * @param cut whether there is a boundary there
+		 */
+		public void cutPoint(long position, boolean cut);
+	}
+
+	protected int _windowSize;
+	protected int _threshold;
+	protected boolean _useLocalMax;
+
+	protected HashMap<Expert,Integer> _experts = new HashMap<Expert,Integer>();
+	protected CutListener _listener;
+
+	// The last _windowSize tokens, token p at p % _windowSize
+	private String[] _tokens;
+	private Window _window = new Window();
+
+	// Votes of cut point p at p % _vote.length: the positions windows can
+	// still vote for, the one waiting for its right neighbour under the
+	// local max check, and the left neighbour of that one
+	private int[] _vote;
+
+	private long _numTokens;
+	private long _nextDecision;
+	private boolean _finished;
+
+	public StreamingVotingExperts(int windowSize, int threshold, boolean useLocalMax, CutListener listener) {
+		if (windowSize < 1)
+			throw new RuntimeException("Bad window size: " + windowSize);
+		_windowSize = windowSize;
+		_threshold = threshold;
+		_useLocalMax = useLocalMax;
+		_listener = listener;
+		_tokens = new String[windowSize];
+		_vote = new int[windowSize + 3];
+	}
+
+	/**
+	 * Streams with the experts, weights, window size and threshold of ve,
+	 * for example one made by the VotingExperts factories over a training
+	 * corpus. Votes added to ve with addVotes belong to its corpus and
+	 * can't be streamed.
+	 */
+	public StreamingVotingExperts(VotingExperts ve, boolean useLocalMax, CutListener listener) {
+		this(ve._windowSize, ve._threshold, useLocalMax, listener);
+		if (!ve._fixedVotes.isEmpty())
+			throw new RuntimeException("Precomputed votes can't be streamed");
+		_experts.putAll(ve._experts);
+	}
+
+	public void addExpert(Expert expert, int weight) {
+		_experts.put(expert, weight);
+	}
+
+	/**
+	 * Adds the next token of the stream, voting on the window it
+	 * completes and deciding every cut point that is now final.
+	 */
+	public void push(String token) {
+		if (_finished)
+			throw new RuntimeException("Token pushed after the end of the stream");
+
+		long n = ++_numTokens;
+		_tokens[(int) ((n - 1) % _windowSize)] = token;
+		_vote[slot(n - 1)] = 0;
+
+		if (n >= _windowSize) {
+			// the window ending with this token votes for cut points
+			// i-1 .. i+windowSize-1, the last of which is the newest
+			long i = n - _windowSize;
+			_window.start = i;
+			for (Map.Entry<Expert,Integer> e : _experts.entrySet()) {
+				if (_windowSize <= Expert.MAX_VOTE_WINDOW) {
+					// bit j is a vote for cut j of the window
+					long votes = e.getKey().vote(_window, 0, _windowSize);
+					for (; votes != 0; votes &= votes - 1) {
+						long index = Long.numberOfTrailingZeros(votes) + i - 1;
+						if (index > 0)
+							_vote[slot(index)] += e.getValue();
+					}
+				} else {
+					boolean[] votePoints = e.getKey().segment(_window);
+					for (int j = 0; j < votePoints.length; j++) {
+						if (votePoints[j]) {
+							long index = j + i - 1;
+							if (index > 0)
+								_vote[slot(index)] += e.getValue();
+						}
+					}
+				}
+			}
+		}
+
+		// the votes of cut point k are final once window k+1 has voted
+		long lastFinal = n - 1 - _windowSize;
+		decide(_useLocalMax ? lastFinal - 1 : lastFinal, -1);
+	}
+
+	public void pushAll(Iterator<String> tokens) {
+		while (tokens.hasNext())
+			push(tokens.next());
+	}
+
+	/**
+	 * Ends the stream and decides the remaining cut points, the last of
+	 * them (before the last token) checked against its left neighbour only.
+	 */
+	public void finish() {
+		if (_finished)
+			return;
+		_finished = true;
+		long numCutPoints = Math.max(_numTokens - 1, 0);
+		decide(numCutPoints - 1, numCutPoints);
+	}
+
+	/** The number of tokens pushed so far */
+	public long size() {
+		return _numTokens;
+	}
+
+	/**
+	 * Decides the cut points up to last, as VotingExperts.makeCutPoints
+	 * does. numCutPoints is only known (>= 0) when the stream has ended.
+	 */
+	private void decide(long last, long numCutPoints) {
+		for (long k = _nextDecision; k <= last; k++) {
+			int vote = _vote[slot(k)];
+			boolean cut = false;
+			if (vote > _threshold) {
+				if (!_useLocalMax) {
+					cut = true;
+				} else if (k + 1 == numCutPoints) {
+					cut = (k == 0) || vote > _vote[slot(k - 1)];
+				} else if (k == 0) {
+					cut = vote > _vote[slot(k + 1)];
+				} else {
+					cut = vote > _vote[slot(k - 1)] && vote > _vote[slot(k + 1)];
+				}
+			}
+			_listener.cutPoint(k, cut);
+			_nextDecision = k + 1;
+		}
+	}
+
+	private int slot(long position) {
+		return (int) (position % _vote.length);
+	}
+
+	/** The window of the ring of tokens starting at token start */
+	private class Window extends AbstractList<String> implements RandomAccess {
+		long start;
+
+		@Override
+		public String get(int index) {
+			if (index < 0 || index >= _windowSize)
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + _windowSize);
+			return _tokens[(int) ((start + index) % _windowSize)];
+		}
+
+		@Override
+		public int size() {
+			return _windowSize;
+		}
+	}
+}
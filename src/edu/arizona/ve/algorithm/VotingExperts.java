@@ -5,19 +5,25 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import edu.arizona.ve.corpus.Corpus;
+import edu.arizona.ve.corpus.CutPoints;
 import edu.arizona.ve.experts.BackwardEntropyExpert;
 import edu.arizona.ve.experts.BackwardPhonemeToMorphemeExpert;
 import edu.arizona.ve.experts.ChunkinessExpert;
 import edu.arizona.ve.experts.Expert;
 import edu.arizona.ve.experts.ForwardEntropyExpert;
+import edu.arizona.ve.experts.FusedExperts;
 import edu.arizona.ve.experts.KnowledgeExpert;
 import edu.arizona.ve.experts.MorphemeExpert;
 import edu.arizona.ve.experts.PhonemeToMorphemeExpert;
 import edu.arizona.ve.experts.SurprisalExpert;
-import edu.arizona.ve.trie.Trie;
+import edu.arizona.ve.trie.NGramIndex;
+import edu.arizona.ve.trie.PositionStatistics;
 
 /**
  * @author Daniel Hewlett
@@ -26,9 +32,25 @@ import edu.arizona.ve.trie.Trie;
  */
 public class VotingExperts {
 	
+	/** Number of threads runAlgorithm uses unless setParallelism is called */
+	public static int DEFAULT_PARALLELISM = 1;
+	
+	// Windows handed to each fork-join task in parallel mode
+	private static final int MIN_SHARD_SIZE = 4096;
+	
+	// One pool per parallelism, never shut down: callers may still be
+	// submitting to a pool when another parallelism is asked for
+	private static HashMap<Integer,ForkJoinPool> _pools = new HashMap<Integer,ForkJoinPool>();
+	
+	/** Standard expert sets vote through FusedExperts unless this is false */
+	public static boolean FUSED = true;
+	
+	/** Weight of the knowledge expert in the BVE factories */
+	public static final int KNOWLEDGE_WEIGHT = 8;
+	
 	// Locals
 	protected List<String> _corpus;
-	protected List<Boolean> _cutPoints;
+	protected CutPoints _cutPoints;
 	
 	protected int _windowSize;
 	protected int _threshold;
@@ -36,6 +58,15 @@ public class VotingExperts {
 	protected HashMap<Expert,Integer> _experts = new HashMap<Expert,Integer>();
 	protected int[] _vote;
 	
+	// Vote vectors computed earlier (see computeExpertVotes) and their weights
+	protected List<int[]> _fixedVotes = new ArrayList<int[]>();
+	protected List<Integer> _fixedWeights = new ArrayList<Integer>();
+	
+	// Optional table of precomputed trie statistics for _corpus
+	protected PositionStatistics _statistics;
+	
+	protected int _parallelism = DEFAULT_PARALLELISM;
+	
 	// Constructors
 	public VotingExperts(Corpus c, int windowSize, int threshold) {
 		_corpus = c.getCleanChars();
@@ -53,75 +84,275 @@ public class VotingExperts {
 		_experts.put(expert, weight);
 	}
 	
+	/**
+	 * Adds the votes of an expert that were computed earlier, for example 
+	 * by computeExpertVotes, so that they count without rerunning it.
+	 */
+	public void addVotes(int[] votes, int weight) {
+		_fixedVotes.add(votes);
+		_fixedWeights.add(weight);
+	}
+	
 	// The Algorithm
 	public void runAlgorithm(boolean uselocalMax) { 
-		int numCutPoints = _corpus.size() - 1;
+		computeVotes();
 
-		_vote = new int[numCutPoints];
+		// cutPoints will be either true or false depending on whether
+		// you choose to cut there (what else would that mean?)		
+		makeCutPoints(_vote.length, uselocalMax);
+	}
+	
+	/**
+	 * Runs the experts over every window and fills the vote array. The 
+	 * votes do not depend on the threshold, so a threshold sweep can call 
+	 * this once and then only makeCutPoints for each threshold.
+	 */
+	public void computeVotes() {
+		_vote = vote(_experts);
+		
+		for (int k = 0; k < _fixedVotes.size(); k++) {
+			int[] votes = _fixedVotes.get(k);
+			int weight = _fixedWeights.get(k);
+			for (int i = 0; i < _vote.length; i++) {
+				_vote[i] += weight * votes[i];
+			}
+		}
+	}
+	
+	/**
+	 * The unweighted votes of a single expert over the corpus. The result 
+	 * can be handed to addVotes of another VotingExperts over the same 
+	 * corpus and window size.
+	 */
+	public int[] computeExpertVotes(Expert expert) {
+		Map<Expert,Integer> experts = new HashMap<Expert,Integer>();
+		experts.put(expert, 1);
+		return vote(experts);
+	}
+	
+	protected int[] vote(Map<Expert,Integer> experts) {
+		int numCutPoints = _corpus.size() - 1;
+		int[] vote = new int[numCutPoints];
+		
+		PositionStatistics stats = _statistics;
+		if (stats != null && (stats.size() != _corpus.size() || stats.getMaxLength() < _windowSize))
+			stats = null;
+		
+		int numWindows = numCutPoints - _windowSize + 2;
+		if (_parallelism > 1 && numWindows > MIN_SHARD_SIZE) {
+			voteParallel(experts, numWindows, stats, vote);
+		} else {
+			voteWindows(experts, 0, numWindows, stats, vote, 0);
+		}
+		return vote;
+	}
+	
+	/**
+	 * Adds the votes of windows [from, to) into vote, where vote[0] 
+	 * holds the votes for cut point base.
+	 */
+	protected void voteWindows(Map<Expert,Integer> experts, int from, int to, PositionStatistics stats, int[] vote, int base) {
+		int numCutPoints = _corpus.size() - 1;
+		
+		FusedExperts fused = FUSED ? FusedExperts.match(experts) : null;
+		if (fused != null) {
+			for (int i = from; i < to; ++i) {
+				fused.vote(stats, _corpus, i, _windowSize, vote, base, numCutPoints);
+			}
+			return;
+		}
+		
+		if (_windowSize > Expert.MAX_VOTE_WINDOW) {
+			voteWindowsLegacy(experts, from, to, stats, vote, base);
+			return;
+		}
+		
+		Expert[] voters = experts.keySet().toArray(new Expert[experts.size()]);
+		int[] weights = new int[voters.length];
+		for (int k = 0; k < voters.length; k++) {
+			weights[k] = experts.get(voters[k]);
+		}
+		
+		for (int i = from; i < to; ++i) {
+			for (int k = 0; k < voters.length; k++) {
+				long votes;
+				if (stats != null)
+					votes = voters[k].vote(stats, _corpus, i, _windowSize);
+				else
+					votes = voters[k].vote(_corpus, i, _windowSize);
+				// bit j is a vote for cut j of the window
+				for (; votes != 0; votes &= votes - 1) {
+					int index = Long.numberOfTrailingZeros(votes) + i - 1;
+					if (index > 0 && index < numCutPoints) {
+						vote[index - base] += weights[k];
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * voteWindows for windows too long for Expert.vote, through segment()
+	 */
+	private void voteWindowsLegacy(Map<Expert,Integer> experts, int from, int to, PositionStatistics stats, int[] vote, int base) {
+		int numCutPoints = _corpus.size() - 1;
 		
-		for (int i = 0; i <= numCutPoints - _windowSize + 1; ++i) {
+		for (int i = from; i < to; ++i) {
 			List<String> subSequence = Collections.unmodifiableList(_corpus.subList(i, i + _windowSize));
 
-			for (Expert expert : _experts.keySet()) {
-				boolean[] votePoints = expert.segment(subSequence);
+			for (Expert expert : experts.keySet()) {
+				boolean[] votePoints;
+				if (stats != null)
+					votePoints = expert.segment(stats, i, subSequence);
+				else
+					votePoints = expert.segment(subSequence);
 				for (int j = 0; j < votePoints.length; j++) {
 					if (votePoints[j]) {
 						int index = j + i - 1;
 						if (index > 0 && index < numCutPoints) {
-							_vote[index] += _experts.get(expert);
+							vote[index - base] += experts.get(expert);
 						}
 					}
 				}
 			}
 		}
+	}
+	
+	/**
+	 * Splits the windows into shards that vote into their own arrays on 
+	 * the fork-join pool, then adds the shards into vote. Votes are 
+	 * integers, so the result is the same as the sequential run.
+	 */
+	protected void voteParallel(Map<Expert,Integer> experts, int numWindows, PositionStatistics stats, int[] vote) {
+		int numShards = Math.min(_parallelism * 4, numWindows / MIN_SHARD_SIZE);
+		int shardSize = (numWindows + numShards - 1) / numShards;
+		
+		final List<Shard> shards = new ArrayList<Shard>();
+		for (int from = 0; from < numWindows; from += shardSize) {
+			shards.add(new Shard(experts, from, Math.min(from + shardSize, numWindows), stats));
+		}
+		
+		getPool(_parallelism).invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
 
-		// cutPoints will be either true or false depending on whether
-		// you choose to cut there (what else would that mean?)		
-		makeCutPoints(numCutPoints, uselocalMax);
+			@Override
+			protected void compute() {
+				invokeAll(shards);
+			}
+		});
+		
+		for (Shard shard : shards) {
+			for (int k = 0; k < shard.vote.length; k++) {
+				int index = shard.base + k;
+				if (index >= 0 && index < vote.length) 
+					vote[index] += shard.vote[k];
+			}
+		}
+	}
+	
+	/** The windows [from, to) and the cut points they can vote for */
+	private class Shard extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		Map<Expert,Integer> experts;
+		int from, to;
+		int base;
+		int[] vote;
+		PositionStatistics stats;
+		
+		Shard(Map<Expert,Integer> experts, int from, int to, PositionStatistics stats) {
+			this.experts = experts;
+			this.from = from;
+			this.to = to;
+			this.stats = stats;
+			this.base = from - 1;
+			this.vote = new int[to - from + _windowSize + 1];
+		}
+		
+		@Override
+		protected void compute() {
+			voteWindows(experts, from, to, stats, vote, base);
+		}
+	}
+	
+	static synchronized ForkJoinPool getPool(int parallelism) {
+		ForkJoinPool pool = _pools.get(parallelism);
+		if (pool == null) {
+			pool = new ForkJoinPool(parallelism);
+			_pools.put(parallelism, pool);
+		}
+		return pool;
 	}
 	
 	public void makeCutPoints(int numCutPoints, boolean useLocalMax) {
-		_cutPoints = new ArrayList<Boolean>();
+		_cutPoints = new CutPoints(numCutPoints);
 		for (int i = 0; i < numCutPoints; ++i) { 
-			if (_vote[i] > _threshold) {
-				if (!useLocalMax) { // automatically add the cut, don't check against neighbors
-					_cutPoints.add(true);
-				} else {
-					if (i + 1 == numCutPoints) { // can't check next location because we're at the end
-						if (_vote[i] > _vote[i-1]) {
-							_cutPoints.add(true);
-						} else {
-							_cutPoints.add(false);
-						}
-					} else if (i == 0) { // can't check previous location because we're at the beginning
-						if (_vote[i] > _vote[i+1]) {
-							_cutPoints.add(true);
-						} else {
-							_cutPoints.add(false);
-						}
-					} else if (_vote[i] > _vote[i-1] && _vote[i] > _vote[i+1]) { // in the middle we can check both sides
-						_cutPoints.add(true);
-					} else { // local max checks failed, so it's not a boundary
-						_cutPoints.add(false);
-					}
-				}
-			} else {
-				_cutPoints.add(false);
+			if (isCut(_vote, 0, i, numCutPoints, useLocalMax)) {
+				_cutPoints.set(i);
 			}
 		}
 		
 		// sanity check
-		if (_cutPoints.size() != _corpus.size() - 1) {
+		if (_cutPoints.length() != _corpus.size() - 1) {
 			System.out.println("ERROR: VE produced the wrong number of cut points");
 		}
 	}
 
+	/**
+	 * The threshold and local max test for cut point i, whose votes are 
+	 * in vote[i - base] (its neighbours next to it).
+	 */
+	protected boolean isCut(int[] vote, int base, int i, int numCutPoints, boolean useLocalMax) {
+		int v = vote[i - base];
+		if (v > _threshold) {
+			if (!useLocalMax) { // automatically add the cut, don't check against neighbors
+				return true;
+			} else {
+				if (i + 1 == numCutPoints) { // can't check next location because we're at the end
+					return v > vote[i - 1 - base];
+				} else if (i == 0) { // can't check previous location because we're at the beginning
+					return v > vote[i + 1 - base];
+				} else { // in the middle we can check both sides
+					return v > vote[i - 1 - base] && v > vote[i + 1 - base];
+				}
+			}
+		}
+		return false;
+	}
+
 	// Getters and setters
 	public void setCorpus(List<String> newCorpus) {
 		_corpus = newCorpus;
+		_statistics = null;
+	}
+	
+	/**
+	 * Lets the experts read their scores from a table built over the 
+	 * same corpus instead of from the tries.
+	 */
+	public void setStatistics(PositionStatistics statistics) {
+		_statistics = statistics;
+	}
+	
+	public PositionStatistics getStatistics() {
+		return _statistics;
+	}
+	
+	/**
+	 * Number of threads used to vote on the windows. With more than one, 
+	 * runAlgorithm splits the corpus into shards on a fork-join pool, and 
+	 * the experts must be safe to call concurrently (the ones in 
+	 * edu.arizona.ve.experts only read their tries).
+	 */
+	public void setParallelism(int parallelism) {
+		_parallelism = parallelism;
+	}
+	
+	public int getParallelism() {
+		return _parallelism;
 	}
 
-	public List<Boolean> getCutPoints() {
+	public CutPoints getCutPoints() {
 		return _cutPoints;
 	}
 
@@ -160,7 +391,7 @@ public class VotingExperts {
 		Set<List<String>> segments = new HashSet<List<String>>();
 		List<String> segment = new ArrayList<String>();
 		for (int i = 0; i < _corpus.size(); i++) {
-			if (i < _cutPoints.size() && _cutPoints.get(i)) {
+			if (i < _cutPoints.length() && _cutPoints.get(i)) {
 				segment.add(_corpus.get(i));
 				segments.add(segment);
 				segment = new ArrayList<String>();
@@ -181,21 +412,21 @@ public class VotingExperts {
 	}
 	
 	// Convenience Functions (Factory)
-	public static VotingExperts makeForwardVE(Corpus c, Trie t, int windowSize, int threshold) {
+	public static VotingExperts makeForwardVE(Corpus c, NGramIndex t, int windowSize, int threshold) {
 		VotingExperts ve = new VotingExperts(c, windowSize, threshold);
 		ve.addExpert(new SurprisalExpert(t), 1);
 		ve.addExpert(new ForwardEntropyExpert(t), 1);
 		return ve;
 	}
 	
-	public static VotingExperts makeBackwardVE(Corpus c, Trie forward, Trie backward, int windowSize, int threshold) {
+	public static VotingExperts makeBackwardVE(Corpus c, NGramIndex forward, NGramIndex backward, int windowSize, int threshold) {
 		VotingExperts ve = new VotingExperts(c, windowSize, threshold);
 		ve.addExpert(new SurprisalExpert(forward), 1);
 		ve.addExpert(new BackwardEntropyExpert(backward), 1);
 		return ve;
 	}
 	
-	public static VotingExperts makeBidiVE(Corpus c, Trie forward, Trie backward, int windowSize, int threshold) {
+	public static VotingExperts makeBidiVE(Corpus c, NGramIndex forward, NGramIndex backward, int windowSize, int threshold) {
 		VotingExperts ve = new VotingExperts(c, windowSize, threshold);
 		ve.addExpert(new SurprisalExpert(forward), 1);
 		ve.addExpert(new ForwardEntropyExpert(forward), 1);
@@ -203,7 +434,7 @@ public class VotingExperts {
 		return ve;
 	}
 	
-	public static VotingExperts makeMorphemeVE(Corpus c, Trie forward, Trie backward, int windowSize, int threshold) {
+	public static VotingExperts makeMorphemeVE(Corpus c, NGramIndex forward, NGramIndex backward, int windowSize, int threshold) {
 		VotingExperts ve = new VotingExperts(c, windowSize, threshold);
 		ve.addExpert(new SurprisalExpert(forward), 1);
 		ve.addExpert(new ForwardEntropyExpert(forward), 1);
@@ -212,31 +443,31 @@ public class VotingExperts {
 		return ve;
 	}
 	
-	public static VotingExperts makeBVE(Corpus c, Trie forward, Trie knowledgeTrie, int windowSize, int threshold) {
+	public static VotingExperts makeBVE(Corpus c, NGramIndex forward, NGramIndex knowledgeTrie, int windowSize, int threshold) {
 		VotingExperts ve = new VotingExperts(c, windowSize, threshold);
 		ve.addExpert(new SurprisalExpert(forward), 1);
 		ve.addExpert(new ForwardEntropyExpert(forward), 1);
-		ve.addExpert(new KnowledgeExpert(knowledgeTrie), 8);
+		ve.addExpert(new KnowledgeExpert(knowledgeTrie), KNOWLEDGE_WEIGHT);
 		return ve;
 	}
 	
-	public static VotingExperts makeBidiBVE(Corpus c, Trie forward, Trie backward, Trie knowledgeTrie, int windowSize, int threshold) {
+	public static VotingExperts makeBidiBVE(Corpus c, NGramIndex forward, NGramIndex backward, NGramIndex knowledgeTrie, int windowSize, int threshold) {
 		VotingExperts ve = new VotingExperts(c, windowSize, threshold);
 		ve.addExpert(new SurprisalExpert(forward), 1);
 		ve.addExpert(new ForwardEntropyExpert(forward), 1);
 		ve.addExpert(new BackwardEntropyExpert(backward), 1);
-		ve.addExpert(new KnowledgeExpert(knowledgeTrie), 8);
+		ve.addExpert(new KnowledgeExpert(knowledgeTrie), KNOWLEDGE_WEIGHT);
 		return ve;
 	}
 
-	public static VotingExperts makeChunkVE(Corpus c, Trie forward, Trie backward, int windowSize, int threshold) {
+	public static VotingExperts makeChunkVE(Corpus c, NGramIndex forward, NGramIndex backward, int windowSize, int threshold) {
 		VotingExperts ve = new VotingExperts(c, windowSize, threshold);
 		ve.addExpert(new ChunkinessExpert(forward, backward), 1);
 		
 		return ve;
 	}
 	
-	public static VotingExperts makeOmniVE(Corpus c, Trie forward, Trie backward, int windowSize, int threshold) {
+	public static VotingExperts makeOmniVE(Corpus c, NGramIndex forward, NGramIndex backward, int windowSize, int threshold) {
 		VotingExperts ve = new VotingExperts(c, windowSize, threshold);
 		ve.addExpert(new SurprisalExpert(forward), 1);
 		ve.addExpert(new ForwardEntropyExpert(forward), 1);
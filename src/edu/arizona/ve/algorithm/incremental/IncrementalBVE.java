@@ -12,7 +12,6 @@ import edu.arizona.ve.experts.ForwardEntropyExpert;
 import edu.arizona.ve.experts.KnowledgeExpert;
 import edu.arizona.ve.experts.SurprisalExpert;
 import edu.arizona.ve.trie.Trie;
-import edu.arizona.ve.util.Utils;
 
 /**
 *
@@ -52,7 +51,7 @@ public class IncrementalBVE implements IncrementalAlgorithm {
 		ve.runAlgorithm(false);
 		
 		String segmented = new String();
-		for (List<String> seg : cl.getSegments(Utils.makeArray(ve.getCutPoints()))) {
+		for (List<String> seg : cl.getSegments(ve.getCutPoints().toArray())) {
 			for (String c : seg) { segmented += c; }
 			segmented += " ";
 		}
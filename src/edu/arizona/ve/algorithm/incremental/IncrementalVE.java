@@ -7,7 +7,6 @@ import edu.arizona.ve.algorithm.Incremental;
 import edu.arizona.ve.algorithm.VotingExperts;
 import edu.arizona.ve.corpus.Corpus;
 import edu.arizona.ve.trie.Trie;
-import edu.arizona.ve.util.Utils;
 
 /**
 *
@@ -39,7 +38,7 @@ public class IncrementalVE implements IncrementalAlgorithm {
 		ve.runAlgorithm(false);
 		
 		String segmented = new String();
-		for (List<String> seg : cl.getSegments(Utils.makeArray(ve.getCutPoints()))) {
+		for (List<String> seg : cl.getSegments(ve.getCutPoints().toArray())) {
 			for (String c : seg) { segmented += c; }
 			segmented += " ";
 		}
@@ -49,7 +49,7 @@ public class AutoOptimization {
 		Segmentation segmentation = AutoEngine.autoBVE(corpus);
 //		Segmentation segmentation = AutoEngine.autoVE(corpus);
 		
-		boolean[] cutPointsBVE = Arrays.copyOf(segmentation.cutPoints, segmentation.cutPoints.length);
+		boolean[] cutPointsBVE = segmentation.cutPoints.toArray();
 		double[] scores = new double[segmentation.votes.length];
 		for (int i = 0; i < segmentation.votes.length; i++) {
 			scores[i] = segmentation.votes[i];
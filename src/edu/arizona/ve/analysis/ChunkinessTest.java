@@ -1,14 +1,13 @@
 package edu.arizona.ve.analysis;
 
-import java.util.List;
-
 import edu.arizona.ve.algorithm.VotingExperts;
 import edu.arizona.ve.corpus.Corpus;
 import edu.arizona.ve.corpus.Corpus.CorpusType;
+import edu.arizona.ve.corpus.CutPoints;
 import edu.arizona.ve.evaluation.EvaluationResults;
 import edu.arizona.ve.evaluation.Evaluator;
 import edu.arizona.ve.trie.Trie;
-import edu.arizona.ve.util.Utils;
+import edu.arizona.ve.trie.TriePair;
 
 public class ChunkinessTest {
 
@@ -25,13 +24,13 @@ public class ChunkinessTest {
 		int refThreshold = 2;
 		int chunkThreshold = 0; //Math.max(0, refThreshold-3);
 		
-		Trie forward = corpus.makeForwardTrie(windowSize + 1);
-		Trie backward = corpus.makeBackwardTrie(windowSize + 1);
+		TriePair tries = TriePair.start(corpus, windowSize + 1);
+		Trie forward = tries.getForward();
+		Trie backward = tries.getBackward();
 		VotingExperts ve = VotingExperts.makeChunkVE(corpus, forward, backward, windowSize, chunkThreshold);
 		
 		ve.runAlgorithm(false);
-		List<Boolean> cutPoints = ve.getCutPoints();
-		boolean[] veCuts = Utils.makeArray(cutPoints);
+		CutPoints veCuts = ve.getCutPoints();
 		
 		System.out.println("Chunkiness Expert:");
 		EvaluationResults results = Evaluator.evaluate(veCuts, corpus.getCutPoints());
@@ -40,8 +39,7 @@ public class ChunkinessTest {
 		// OmniVE for Reference 
 		VotingExperts ref = VotingExperts.makeOmniVE(corpus, forward, backward, windowSize, refThreshold);
 		ref.runAlgorithm(true);
-		List<Boolean> cutPointsRef = ref.getCutPoints();
-		boolean[] refCuts = Utils.makeArray(cutPointsRef);
+		CutPoints refCuts = ref.getCutPoints();
 		
 		System.out.println("\nReference BidiVE:");
 		EvaluationResults refResults = Evaluator.evaluate(refCuts, corpus.getCutPoints());
@@ -14,6 +14,7 @@ import edu.arizona.ve.experts.ForwardEntropyExpert;
 import edu.arizona.ve.experts.MorphemeExpert;
 import edu.arizona.ve.experts.SurprisalExpert;
 import edu.arizona.ve.trie.Trie;
+import edu.arizona.ve.trie.TriePair;
 
 public class ErrorAnalyzer {
 
@@ -46,8 +47,9 @@ public class ErrorAnalyzer {
 		
 		HashMap<List<String>, HashMap<List<Boolean>, Integer>> m = new HashMap<List<String>, HashMap<List<Boolean>, Integer>>();
 		
-		Trie trie = corpus.makeForwardTrie(windowSize + 1);
-		Trie backwardTrie = corpus.makeBackwardTrie(windowSize + 1);
+		TriePair tries = TriePair.start(corpus, windowSize + 1);
+		Trie trie = tries.getForward();
+		Trie backwardTrie = tries.getBackward();
 		
 		ForwardEntropyExpert fe = new ForwardEntropyExpert(trie);
 //		BackwardEntropyExpert be = new BackwardEntropyExpert(backwardTrie);
@@ -5,6 +5,7 @@ import java.util.Vector;
 
 import edu.arizona.ve.corpus.Corpus;
 import edu.arizona.ve.corpus.CorpusWriter;
+import edu.arizona.ve.corpus.CutPoints;
 import edu.arizona.ve.evaluation.EvaluationResults;
 import edu.arizona.ve.evaluation.Evaluator;
 import edu.arizona.ve.util.NF;
@@ -23,8 +24,13 @@ public class AutoEngine {
 	public static Segmentation autoVE(Corpus c, int maxWindow) {
 		Vector<Segmentation> segmentations = new Vector<Segmentation>();
 		
+		// One pair of tries deep enough for the largest window serves every
+		// window: the statistics of n-grams up to length window don't depend
+		// on how much deeper the tries go.
+		Engine engine = new Engine(c, maxWindow + 1);
+		engine.getStatistics(maxWindow, Engine.FORWARD_TABLES);
+		
 		for (int window = 2; window <= maxWindow; window++) {
-			Engine engine = new Engine(c, window+1);
 			segmentations.addAll(engine.voteAllThresholds(window, 0, window));
 		}
 		
@@ -32,8 +38,9 @@ public class AutoEngine {
 		Segmentation bestSegmentation = segmentations.get(0);
 
 		Vector<Double> scores = new Vector<Double>();
+		CutPoints actual = CutPoints.fromArray(c.getCutPoints());
 		for (Segmentation seg : segmentations) {
-			EvaluationResults results = Evaluator.evaluate(seg.cutPoints, c.getCutPoints());
+			EvaluationResults results = Evaluator.evaluate(seg.cutPoints, actual);
 			scores.add(results.boundaryF1());
 		}
 		
@@ -1,18 +1,27 @@
 package edu.arizona.ve.api;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Vector;
 
+import edu.arizona.ve.algorithm.ChunkedSegmenter;
 import edu.arizona.ve.algorithm.VotingExperts;
 import edu.arizona.ve.api.Segmentation.Direction;
 import edu.arizona.ve.corpus.Corpus;
 import edu.arizona.ve.corpus.Corpus.CorpusType;
 import edu.arizona.ve.corpus.CorpusWriter;
+import edu.arizona.ve.corpus.CutPoints;
 import edu.arizona.ve.evaluation.EvaluationResults;
 import edu.arizona.ve.evaluation.Evaluator;
+import edu.arizona.ve.experts.KnowledgeExpert;
 import edu.arizona.ve.mdl.MDL;
+import edu.arizona.ve.trie.IncrementalKnowledge;
+import edu.arizona.ve.trie.KnowledgeIndex;
+import edu.arizona.ve.trie.KnowledgeTrieUpdater;
+import edu.arizona.ve.trie.NGramIndex;
+import edu.arizona.ve.trie.PositionStatistics;
 import edu.arizona.ve.trie.Trie;
-import edu.arizona.ve.util.Utils;
+import edu.arizona.ve.trie.TriePair;
 
 /**
 * @author Daniel Hewlett
@@ -25,6 +34,9 @@ public class Engine {
 	
 	public static boolean DEBUG = false;
 	
+	// BVE keeps the boundary-only KnowledgeIndex up to date instead of a full knowledge trie
+	public static boolean SPARSE_KNOWLEDGE = true;
+	
 	int trieDepth;
 
 	// The corpus 
@@ -35,7 +47,19 @@ public class Engine {
 	Trie backwardTrie;
 
 	// The knowledge trie for BVE
-	Trie forwardKnowledgeTrie;
+	NGramIndex forwardKnowledgeTrie;
+	
+	// Statistics of the forward and backward tries at every corpus position
+	PositionStatistics statistics;
+	
+	// The position tables read by the experts of each kind of VE
+	public static final int FORWARD_TABLES = PositionStatistics.STD_ENTROPY | PositionStatistics.STD_INT_ENTROPY;
+	public static final int BACKWARD_TABLES = PositionStatistics.STD_INT_ENTROPY | PositionStatistics.BACKWARD_STD_ENTROPY;
+	public static final int BIDI_TABLES = FORWARD_TABLES | PositionStatistics.BACKWARD_STD_ENTROPY;
+	public static final int MORPHEME_TABLES = BIDI_TABLES | PositionStatistics.NUM_CHILDREN | PositionStatistics.BACKWARD_NUM_CHILDREN;
+	
+	// Votes of the experts that do not change during bootstrapping
+	HashMap<String,int[]> expertVotes = new HashMap<String,int[]>();
 	
 	// Segmentations
 	Segmentation forwardSegmentation = null;
@@ -54,14 +78,17 @@ public class Engine {
 
 	public void setCorpus(Corpus c) {
 		corpus = c;
+		statistics = null;
+		expertVotes.clear();
 	}
 	
 	private void initTries() {
-		forwardTrie = corpus.makeForwardTrie(trieDepth);
-		backwardTrie = corpus.makeBackwardTrie(trieDepth);
+		TriePair tries = TriePair.start(corpus, trieDepth);
+		forwardTrie = tries.getForward();
+		backwardTrie = tries.getBackward();
 	}
 	
-	public Trie getForwardKnowledgeTrie() {
+	public NGramIndex getForwardKnowledgeTrie() {
 		return forwardKnowledgeTrie;
 	}
 		
@@ -80,6 +107,32 @@ public class Engine {
 	public Trie getBackwardTrie() {
 		return backwardTrie;
 	}
+	
+	/**
+	 * The position table of the bidirectional experts for windows up to 
+	 * windowSize, see getStatistics(int, int).
+	 */
+	public PositionStatistics getStatistics(int windowSize) {
+		return getStatistics(windowSize, BIDI_TABLES);
+	}
+	
+	/**
+	 * The position table for windows up to windowSize with at least the 
+	 * given tables (PositionStatistics.STD_ENTROPY | ...), built the first 
+	 * time it is needed and shared by every vote afterwards. Missing tables 
+	 * are added to it; a table too short is rebuilt with the ones it had 
+	 * as well.
+	 */
+	public PositionStatistics getStatistics(int windowSize, int tables) {
+		if (statistics == null || statistics.getMaxLength() < windowSize) {
+			if (statistics != null)
+				tables |= statistics.getTables();
+			statistics = new PositionStatistics(corpus, forwardTrie, backwardTrie, windowSize, tables);
+		} else {
+			statistics.ensure(tables);
+		}
+		return statistics;
+	}
 
 	public Segmentation voteBVE(int window, int minThreshold, boolean useLocalMax, boolean bidiBVE) {
 		int startThreshold = (window * (bidiBVE ? 3 : 2)) - 1; // window + thresholdOffset 
@@ -90,8 +143,9 @@ public class Engine {
 		if (DEBUG) 
 			Evaluator.evaluate(result, corpus).printResults();
 		
+		IncrementalKnowledge knowledge = makeKnowledge(window, result.cutPoints);
 		for (int threshold = startThreshold - 1; threshold >= 0; threshold-- ) {
-			forwardKnowledgeTrie = corpus.makeKnowledgeTrie(window, result.cutPoints);
+			forwardKnowledgeTrie = knowledge.update(result.cutPoints.toArray());
 			result = votePartial(window, threshold, useLocalMax, bidiBVE);
 			if (DEBUG) 
 				Evaluator.evaluate(result, corpus).printResults();	
@@ -109,9 +163,11 @@ public class Engine {
 		Segmentation localMaxOff = votePartial(window, startThreshold, false, bidiBVE);
 		
 		Vector<Segmentation> segmentations = new Vector<Segmentation>();
+		IncrementalKnowledge knowledgeOn = makeKnowledge(window, localMaxOn.cutPoints);
+		IncrementalKnowledge knowledgeOff = makeKnowledge(window, localMaxOff.cutPoints);
 		for (int threshold = startThreshold - 1; threshold >= 0; threshold-- ) {
-			Trie knowledgeTrieOn = corpus.makeKnowledgeTrie(window, localMaxOn.cutPoints);
-			Trie knowledgeTrieOff = corpus.makeKnowledgeTrie(window, localMaxOff.cutPoints);
+			NGramIndex knowledgeTrieOn = knowledgeOn.update(localMaxOn.cutPoints.toArray());
+			NGramIndex knowledgeTrieOff = knowledgeOff.update(localMaxOff.cutPoints.toArray());
 			
 			localMaxOn = votePartial(window, threshold, true, bidiBVE, knowledgeTrieOn);
 			localMaxOff = votePartial(window, threshold, false, bidiBVE, knowledgeTrieOff);
@@ -123,6 +179,18 @@ public class Engine {
 		return segmentations;
 	}
 	
+	/**
+	 * The knowledge the bootstrap iterations vote with, starting from cuts 
+	 * and updated with the cuts of every iteration: the KnowledgeIndex, or 
+	 * the full trie of KnowledgeTrieUpdater when SPARSE_KNOWLEDGE is off.
+	 */
+	private IncrementalKnowledge makeKnowledge(int window, CutPoints cuts) {
+		if (SPARSE_KNOWLEDGE) {
+			return new KnowledgeIndex(corpus.getCleanChars(), cuts.toArray(), window);
+		}
+		return new KnowledgeTrieUpdater(corpus, window, cuts.toArray());
+	}
+	
 	// TODO: What is the difference between this and voteKnowledgeTransfer
 	public Segmentation voteTransfer(Corpus newCorpus, int window, int threshold, boolean useLocalMax) {
 		setCorpus(newCorpus);
@@ -131,10 +199,11 @@ public class Engine {
 	
 	public Segmentation voteForward(int windowSize, int threshold, boolean useLocalMax) {
 		VotingExperts ve = VotingExperts.makeForwardVE(corpus, forwardTrie, windowSize, threshold);
+		ve.setStatistics(getStatistics(windowSize, FORWARD_TABLES));
 	    ve.runAlgorithm(useLocalMax);
 	    
 	    Segmentation s = new Segmentation(windowSize, threshold);
-	    s.cutPoints = Utils.makeArray(ve.getCutPoints());
+	    s.cutPoints = ve.getCutPoints();
 	    s.localMax = useLocalMax;
 	    s.descriptionLength = MDL.computeDescriptionLength(corpus, s.cutPoints);
 
@@ -145,10 +214,11 @@ public class Engine {
 	
 	public Segmentation voteBackward(int windowSize, int threshold, boolean useLocalMax) {
 	    VotingExperts ve = VotingExperts.makeBackwardVE(corpus, forwardTrie, backwardTrie, windowSize, threshold);
+	    ve.setStatistics(getStatistics(windowSize, BACKWARD_TABLES));
 	    ve.runAlgorithm(useLocalMax);
 	    
 	    Segmentation s = new Segmentation(windowSize, threshold);
-	    s.cutPoints = Utils.makeArray(ve.getCutPoints());
+	    s.cutPoints = ve.getCutPoints();
 	    s.localMax = useLocalMax;
 	    s.descriptionLength = MDL.computeDescriptionLength(corpus, s.cutPoints);
 
@@ -161,61 +231,51 @@ public class Engine {
 	}
 	
 	public List<Segmentation> bidiVoteAllThresholds(int windowSize, int minThreshold, int maxThreshold) {
-		Vector<Segmentation> segmentations = new Vector<Segmentation>();
 		VotingExperts ve = VotingExperts.makeBidiVE(corpus, forwardTrie, backwardTrie, windowSize, minThreshold);
-		for (int t = minThreshold; t < maxThreshold; t++) {
-			ve.setThreshold(t);
-			
-			ve.runAlgorithm(false);
-			
-			Segmentation maxOff = new Segmentation();
-			maxOff.windowSize = windowSize;
-			maxOff.threshold = t;
-			maxOff.localMax = false;
-			maxOff.cutPoints = Utils.makeArray(ve.getCutPoints());
-			maxOff.descriptionLength = MDL.computeDescriptionLength(corpus, maxOff.cutPoints);
-			segmentations.add(maxOff);
-			
-			ve.makeCutPoints(ve.getCutPoints().size(), true);
-			
-			Segmentation maxOn = new Segmentation();
-			maxOn.windowSize = windowSize;
-			maxOn.threshold = t;
-			maxOn.localMax = true;
-			maxOn.cutPoints = Utils.makeArray(ve.getCutPoints());
-			maxOn.descriptionLength = MDL.computeDescriptionLength(corpus, maxOn.cutPoints);
-			
-			segmentations.add(maxOn);
-		}
-		return segmentations;
+		ve.setStatistics(getStatistics(windowSize));
+		return voteAllThresholds(ve, windowSize, minThreshold, maxThreshold);
 	}
 	
 	public List<Segmentation> voteAllThresholds(int windowSize, int minThreshold, int maxThreshold) {
-		Vector<Segmentation> segmentations = new Vector<Segmentation>();
 		VotingExperts ve = VotingExperts.makeForwardVE(corpus, forwardTrie, windowSize, minThreshold); 
+		ve.setStatistics(getStatistics(windowSize, FORWARD_TABLES));
+		return voteAllThresholds(ve, windowSize, minThreshold, maxThreshold);
+	}
+	
+	/**
+	 * Segmentations for every threshold in [minThreshold, maxThreshold), 
+	 * with local max off and on. The votes do not depend on the threshold, 
+	 * so the experts run once and each segmentation is cut from the same 
+	 * vote array.
+	 */
+	public List<Segmentation> voteAllThresholds(VotingExperts ve, int windowSize, int minThreshold, int maxThreshold) {
+		Vector<Segmentation> segmentations = new Vector<Segmentation>();
+		ve.computeVotes();
+		int numCutPoints = ve.getVotes().length;
+		
 		for (int t = minThreshold; t < maxThreshold; t++) {
 
 			ve.setThreshold(t);
 			
 			// Local Max OFF
-			ve.runAlgorithm(false);
+			ve.makeCutPoints(numCutPoints, false);
 			
 			Segmentation maxOff = new Segmentation();
 			maxOff.windowSize = windowSize;
 			maxOff.threshold = t;
 			maxOff.localMax = false;
-			maxOff.cutPoints = Utils.makeArray(ve.getCutPoints());
+			maxOff.cutPoints = ve.getCutPoints();
 			maxOff.descriptionLength = MDL.computeDescriptionLength(corpus, maxOff.cutPoints);
 			segmentations.add(maxOff);
 			
 			// Local Max ON
-			ve.makeCutPoints(ve.getCutPoints().size(), true);
+			ve.makeCutPoints(numCutPoints, true);
 			
 			Segmentation maxOn = new Segmentation();
 			maxOn.windowSize = windowSize;
 			maxOn.threshold = t;
 			maxOn.localMax = true;
-			maxOn.cutPoints = Utils.makeArray(ve.getCutPoints());
+			maxOn.cutPoints = ve.getCutPoints();
 			maxOn.descriptionLength = MDL.computeDescriptionLength(corpus, maxOn.cutPoints);
 			
 			segmentations.add(maxOn);
@@ -223,17 +283,17 @@ public class Engine {
 		return segmentations;
 	}
 	
-	public Segmentation votePartial(int windowSize, int threshold, boolean useLocalMax, boolean bidi, Trie kTrie) {
-	    VotingExperts pve; // NOTE: Be careful!
-	    if (bidi) {
-	    	pve = VotingExperts.makeBidiBVE(corpus, forwardTrie, backwardTrie, kTrie, windowSize, threshold);
-	    } else {
-	    	pve = VotingExperts.makeBVE(corpus, forwardTrie, kTrie, windowSize, threshold);
-	    }
+	public Segmentation votePartial(int windowSize, int threshold, boolean useLocalMax, boolean bidi, NGramIndex kTrie) {
+		// Same experts as VotingExperts.makeBVE / makeBidiBVE, but only the
+		// knowledge expert changes between bootstrap iterations, so the 
+		// others are run once (fused) and their votes reused
+	    VotingExperts pve = new VotingExperts(corpus, windowSize, threshold);
+	    pve.addVotes(getBaseVotes(windowSize, bidi), 1);
+	    pve.addExpert(new KnowledgeExpert(kTrie), VotingExperts.KNOWLEDGE_WEIGHT);
 	    pve.runAlgorithm(useLocalMax);
 	    
 	    Segmentation s = new Segmentation(windowSize, threshold);
-	    s.cutPoints = Utils.makeArray(pve.getCutPoints());
+	    s.cutPoints = pve.getCutPoints();
 	    s.localMax = useLocalMax;
 	    s.descriptionLength = MDL.computeDescriptionLength(corpus, s.cutPoints);
 	    s.votes = pve.getVotes();
@@ -251,30 +311,27 @@ public class Engine {
 	}
 	
 	public Segmentation votePartial(int windowSize, int threshold, boolean useLocalMax, boolean bidi) {
-	    VotingExperts pve; // NOTE: Be careful!
-	    if (bidi) {
-	    	pve = VotingExperts.makeBidiBVE(corpus, forwardTrie, backwardTrie, forwardKnowledgeTrie, windowSize, threshold);
-	    } else {
-	    	pve = VotingExperts.makeBVE(corpus, forwardTrie, forwardKnowledgeTrie, windowSize, threshold);
-	    }
-	    pve.runAlgorithm(useLocalMax);
-	    
-	    Segmentation s = new Segmentation(windowSize, threshold);
-	    s.cutPoints = Utils.makeArray(pve.getCutPoints());
-	    s.localMax = useLocalMax;
-	    s.descriptionLength = MDL.computeDescriptionLength(corpus, s.cutPoints);
-	    s.votes = pve.getVotes();
-	    
-	    partialSegmentation = s;
-	    
-	    if (DEBUG) {
-//	    	System.out.println();
-		    System.out.println(pve.getVoteString(100));
-		    System.out.println(pve.getSegmentedString(100, threshold));
-//		    System.out.println(s.descriptionLength);
-	    }
-	    
-	    return s;
+		return votePartial(windowSize, threshold, useLocalMax, bidi, forwardKnowledgeTrie);
+	}
+	
+	/**
+	 * The votes of the surprisal and forward entropy experts (and the 
+	 * backward entropy expert if bidi) over the whole corpus, added up. 
+	 * They are the experts of makeForwardVE / makeBidiVE, so they vote in 
+	 * one fused pass, and the sum is cached per window size.
+	 */
+	public int[] getBaseVotes(int windowSize, boolean bidi) {
+		String key = (bidi ? "bidi" : "forward") + "/" + windowSize;
+		int[] votes = expertVotes.get(key);
+		if (votes == null) {
+			VotingExperts ve = bidi ? VotingExperts.makeBidiVE(corpus, forwardTrie, backwardTrie, windowSize, 0)
+					: VotingExperts.makeForwardVE(corpus, forwardTrie, windowSize, 0);
+			ve.setStatistics(getStatistics(windowSize, bidi ? BIDI_TABLES : FORWARD_TABLES));
+			ve.computeVotes();
+			votes = ve.getVotes();
+			expertVotes.put(key, votes);
+		}
+		return votes;
 	}
 	
 	public Segmentation voteKnowledgeTransfer(int windowSize, int threshold, boolean useLocalMax) {
@@ -282,7 +339,7 @@ public class Engine {
 		pve.runAlgorithm(useLocalMax);
 	    
 		Segmentation s = new Segmentation(windowSize, threshold);
-	    s.cutPoints = Utils.makeArray(pve.getCutPoints());
+	    s.cutPoints = pve.getCutPoints();
 	    s.localMax = useLocalMax;
 	    s.descriptionLength = MDL.computeDescriptionLength(corpus, s.cutPoints);
 	    
@@ -291,6 +348,7 @@ public class Engine {
 	
 	public Segmentation voteBidi(int windowSize, int threshold, boolean useLocalMax) {
 	    VotingExperts ve = VotingExperts.makeBidiVE(corpus, forwardTrie, backwardTrie, windowSize, threshold);
+	    ve.setStatistics(getStatistics(windowSize));
 	    ve.runAlgorithm(useLocalMax);
 
 	    System.out.println(ve.getVoteString(100));
@@ -298,22 +356,47 @@ public class Engine {
 	    
 	    bidiSegmentation = new Segmentation(windowSize, threshold);
 	    bidiSegmentation.direction = Direction.BiDirectional;
-	    bidiSegmentation.cutPoints = Utils.makeArray(ve.getCutPoints());
+	    bidiSegmentation.cutPoints = ve.getCutPoints();
 	    bidiSegmentation.localMax = useLocalMax;
 	    bidiSegmentation.descriptionLength = MDL.computeDescriptionLength(corpus, bidiSegmentation.cutPoints);
 
 	    return bidiSegmentation;
 	}
 	
+	/**
+	 * Segments the corpus with the bidirectional experts into 
+	 * output/fileName a chunk at a time (see ChunkedSegmenter), for corpora 
+	 * too big for a vote array over all of them.
+	 */
+	public void writeBidiChunked(String fileName, int windowSize, int threshold, boolean useLocalMax) {
+		VotingExperts ve = VotingExperts.makeBidiVE(corpus, forwardTrie, backwardTrie, windowSize, threshold);
+		writeChunked(ve, fileName, useLocalMax);
+	}
+	
+	/**
+	 * Segments the corpus of ve into output/fileName a chunk at a time, 
+	 * with ChunkedSegmenter.DEFAULT_PARALLELISM threads.
+	 */
+	public void writeChunked(VotingExperts ve, String fileName, boolean useLocalMax) {
+		writeChunked(ve, fileName, useLocalMax, ChunkedSegmenter.DEFAULT_PARALLELISM);
+	}
+	
+	public void writeChunked(VotingExperts ve, String fileName, boolean useLocalMax, int parallelism) {
+		ChunkedSegmenter segmenter = new ChunkedSegmenter(ve);
+		segmenter.setParallelism(parallelism);
+		segmenter.segment(fileName, useLocalMax, corpus.getType() == CorpusType.WORD);
+	}
+	
 	public Segmentation voteMorpheme(int windowSize, int threshold, boolean useLocalMax) {
 	    VotingExperts ve = VotingExperts.makeMorphemeVE(corpus, forwardTrie, backwardTrie, windowSize, threshold);
+	    ve.setStatistics(getStatistics(windowSize, MORPHEME_TABLES));
 	    ve.runAlgorithm(useLocalMax);
 
 //	    System.out.println(ve.getVoteString(100));
 	    
 	    bidiSegmentation = new Segmentation(windowSize, threshold);
 	    bidiSegmentation.direction = Direction.BiDirectional;
-	    bidiSegmentation.cutPoints = Utils.makeArray(ve.getCutPoints());
+	    bidiSegmentation.cutPoints = ve.getCutPoints();
 	    bidiSegmentation.localMax = useLocalMax;
 	    bidiSegmentation.descriptionLength = MDL.computeDescriptionLength(corpus, bidiSegmentation.cutPoints);
 
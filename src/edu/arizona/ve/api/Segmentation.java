@@ -1,6 +1,6 @@
 package edu.arizona.ve.api;
 
-
+import edu.arizona.ve.corpus.CutPoints;
 
 public class Segmentation implements Comparable<Segmentation> {
 	public enum Direction { Forward, Backward, BiDirectional };
@@ -8,7 +8,7 @@ public class Segmentation implements Comparable<Segmentation> {
 	public int windowSize;
 	public int threshold;
 	public boolean localMax = true;
-	public boolean[] cutPoints;
+	public CutPoints cutPoints;
 	public double descriptionLength;
 	public Direction direction = Direction.Forward;
 	public int[] votes = null;
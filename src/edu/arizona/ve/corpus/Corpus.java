@@ -1,8 +1,10 @@
 package edu.arizona.ve.corpus;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -10,6 +12,7 @@ import java.util.Collections;
 import java.util.List;
 
 import edu.arizona.ve.trie.Trie;
+import edu.arizona.ve.util.ReversedList;
 import edu.arizona.ve.util.Utils;
 
 /**
@@ -23,11 +26,19 @@ public class Corpus {
 	private List<String> cleanChars = new ArrayList<String>();
 	private List<String> segChars = new ArrayList<String>();
 	
+	// cleanChars as ids, filled by every loader (see encode)
+	private SymbolTable symbols = new SymbolTable();
+	private int[] tokens = new int[0];
+	
 	private List<List<String>> segments; // TODO: this should probably go away
 	
 	private boolean[] cutPoints;
 	private String name = "CORPUS";
 	
+	// set in the views made by getReverseCorpus, whose cut points and ids
+	// are only reversed when they are first asked for
+	private Corpus reverseOf;
+	
 	CorpusType type = CorpusType.LETTER;
 	boolean casePreserved = false; // only meaningful for letter type
 
@@ -77,10 +88,20 @@ public class Corpus {
 		cl.name = name;
 		cl.type = type;
 		
+		// the segmented corpus of these modes can't be rebuilt from the cut points
+		boolean cached = !preserveSpaces && type != CorpusType.SYLLABLE;
+		File source = new File(path);
+		String mode = CorpusCache.mode(type, preserveCase);
+		if (type == CorpusType.LETTER) {
+			cl.casePreserved = preserveCase;
+		}
+		if (cached && CorpusCache.read(source, mode, cl)) {
+			return cl;
+		}
+		
 		switch (type) {
 		
 		case LETTER:
-			cl.casePreserved = preserveCase;
 			if (preserveCase) {
 				if (preserveSpaces) {
 					cl.loadWithSpaces(path);
@@ -105,6 +126,9 @@ public class Corpus {
 			break;
 		}
 		
+		if (cached) {
+			CorpusCache.write(source, mode, cl);
+		}
 		return cl;
 	}
 	
@@ -118,7 +142,20 @@ public class Corpus {
 
 		cl.name = file;
 		
+		File source = new File(path);
+		String mode = null;
 		if (type.equals("preserve_case")) {
+			mode = CorpusCache.mode(CorpusType.LETTER, true);
+		} else if (type.equals("downcase")) {
+			mode = CorpusCache.mode(CorpusType.LETTER, false);
+		} else if (type.equals("word")) {
+			mode = CorpusCache.mode(CorpusType.WORD, false);
+		}
+		
+		if (mode != null && CorpusCache.read(source, mode, cl)) {
+			cl.type = type.equals("word") ? CorpusType.WORD : CorpusType.LETTER;
+			cl.casePreserved = type.equals("preserve_case");
+		} else if (type.equals("preserve_case")) {
 			cl.load(path, false);
 			cl.type = CorpusType.LETTER;
 			cl.casePreserved = true;
@@ -147,6 +184,9 @@ public class Corpus {
 			return null;
 		}
 
+		if (mode != null) {
+			CorpusCache.write(source, mode, cl);
+		}
 		return cl;
 	}
 
@@ -229,6 +269,8 @@ public class Corpus {
 			System.out.println("ERROR - " + e.getMessage());
 			e.printStackTrace();
 		}
+		
+		encode();
 	}
 
 	public void loadVerbatim(String file) {
@@ -258,10 +300,22 @@ public class Corpus {
 		tempCutPoints.remove(tempCutPoints.size() - 1);
 		
 		cutPoints = Utils.makeArray(tempCutPoints);
+		
+		encode();
 	}
 
 	// NB: this will strip off all numbers as well
 	public void load(String file, boolean lowerCase) {
+		if (MappedCorpusReader.ENABLED) {
+			try {
+				MappedCorpusReader.readLetters(new File(file), lowerCase, this);
+			} catch (IOException e) {
+				System.out.println("ERROR - " + e.getMessage());
+				e.printStackTrace();
+			}
+			return;
+		}
+		
 		cleanChars = new ArrayList<String>();
 		segChars = new ArrayList<String>();
 		ArrayList<Boolean> tempCutPoints = new ArrayList<Boolean>();
@@ -302,6 +356,8 @@ public class Corpus {
 		}
 		
 		cutPoints = Utils.makeArray(tempCutPoints);
+		
+		encode();
 	}
 	
 	public void loadLowercaseWithSpaces(String file) {
@@ -331,6 +387,8 @@ public class Corpus {
 			System.out.println("ERROR - " + e.getMessage());
 			e.printStackTrace();
 		}
+		
+		encode();
 	}
 
 	public void loadWithSpaces(String file) {
@@ -338,7 +396,7 @@ public class Corpus {
 			cleanChars = new ArrayList<String>();
 			segChars = new ArrayList<String>();
 			
-			FileReader reader = new FileReader(file);
+			BufferedReader reader = new BufferedReader(new FileReader(file));
 			for (int c = reader.read(); c != -1; c = reader.read()) {
 				cleanChars.add(Character.toString((char) c));
 				if (isBoundary((char) c)) {
@@ -354,6 +412,8 @@ public class Corpus {
 			System.out.println("ERROR - " + e.getMessage());
 			e.printStackTrace();
 		}
+		
+		encode();
 	}
 	
 	// Preserves boundaries as tokens, you can use this for the sentence boundary information
@@ -388,9 +448,21 @@ public class Corpus {
 			e.printStackTrace();
 		}
 		
+		
+		encode();
 	}
 
 	public void loadWords(String file) {
+		if (MappedCorpusReader.ENABLED) {
+			try {
+				MappedCorpusReader.readWords(new File(file), this);
+			} catch (IOException e) {
+				System.out.println("ERROR - " + e.getMessage());
+				e.printStackTrace();
+			}
+			return;
+		}
+		
 		StringBuffer buf = new StringBuffer();
 		try {
 			BufferedReader in = new BufferedReader(new FileReader(file));
@@ -429,6 +501,8 @@ public class Corpus {
 		tempCutPoints.remove(tempCutPoints.size() - 1);
 		
 		cutPoints = Utils.makeArray(tempCutPoints);
+		
+		encode();
 	}
 
 	public void loadList(List<String> input) {
@@ -450,6 +524,8 @@ public class Corpus {
 		tempCutPoints.remove(tempCutPoints.size() - 1);
 		
 		cutPoints = Utils.makeArray(tempCutPoints);
+		
+		encode();
 	}
 	
 	// for testing convenience
@@ -476,12 +552,108 @@ public class Corpus {
 		tempCutPoints.remove(tempCutPoints.size() - 1);
 		
 		cutPoints = Utils.makeArray(tempCutPoints);
+		
+		encode();
+	}
+
+	/**
+	 * Interns the tokens of cleanChars and fills the id stream. The tokens
+	 * in cleanChars and segChars are replaced by the String of their symbol,
+	 * so there is one String per distinct token instead of one per position.
+	 */
+	private void encode() {
+		tokens = new int[cleanChars.size()];
+		for (int i = 0; i < tokens.length; i++) {
+			tokens[i] = symbols.intern(cleanChars.get(i));
+			cleanChars.set(i, symbols.get(tokens[i]));
+		}
+		
+		if (segChars == cleanChars) 
+			return;
+		for (int i = 0; i < segChars.size(); i++) {
+			int id = symbols.lookup(segChars.get(i));
+			if (id != SymbolTable.NONE) 
+				segChars.set(i, symbols.get(id));
+		}
 	}
-
+	
+	/**
+	 * replaces the tokens, used when the corpus comes from a CorpusCache
+	 */
+	void setTokens(SymbolTable symbols, int[] tokens, List<String> cleanChars, List<String> segChars, boolean[] cutPoints) {
+		this.symbols = symbols;
+		this.tokens = tokens;
+		this.cleanChars = cleanChars;
+		this.segChars = segChars;
+		this.cutPoints = cutPoints;
+	}
+	
+	/**
+	 * replaces the tokens with the ids in tokens, and rebuilds the token
+	 * lists from them with a boundary after every cut (and one at the end
+	 * if trailingBoundary is set), as the loaders would have made them
+	 */
+	void setTokens(SymbolTable symbols, int[] tokens, boolean[] cutPoints, boolean trailingBoundary) {
+		int numCuts = (cutPoints == null) ? 0 : cutPoints.length;
+		ArrayList<String> cleanChars = new ArrayList<String>(tokens.length);
+		ArrayList<String> segChars = new ArrayList<String>(tokens.length + tokens.length / 4);
+		for (int i = 0; i < tokens.length; i++) {
+			String token = symbols.get(tokens[i]);
+			cleanChars.add(token);
+			segChars.add(token);
+			if (i < numCuts && cutPoints[i])
+				segChars.add(BOUNDARY);
+		}
+		if (trailingBoundary)
+			segChars.add(BOUNDARY);
+		
+		setTokens(symbols, tokens, cleanChars, segChars, cutPoints);
+	}
+	
+	/** The ids of the tokens of cleanChars in getSymbols() */
+	public int[] getTokens() {
+		if (reverseOf != null) 
+			fillReverse();
+		return tokens;
+	}
+	
+	/** 
+	 * The symbol table of the token ids, shared with the reversed corpus
+	 * and sub-corpora of this corpus
+	 */
+	public SymbolTable getSymbols() {
+		return symbols;
+	}
+	
+	public int[] getReversedTokens() {
+		int[] tokens = getTokens();
+		int[] reversed = new int[tokens.length];
+		for (int i = 0; i < tokens.length; i++) {
+			reversed[i] = tokens[tokens.length - 1 - i];
+		}
+		return reversed;
+	}
+	
+	
 	public boolean[] getCutPoints() {
+		if (reverseOf != null) 
+			fillReverse();
 		return cutPoints;
 	}
 	
+	private synchronized void fillReverse() {
+		if (tokens == null) {
+			tokens = reverseOf.getReversedTokens();
+		}
+		if (cutPoints == null && reverseOf.getCutPoints() != null) {
+			boolean[] forward = reverseOf.getCutPoints();
+			cutPoints = new boolean[forward.length];
+			for (int i = 0; i < forward.length; i++) {
+				cutPoints[i] = forward[forward.length-i-1];
+			}
+		}
+	}
+	
 	public List<String> getCleanChars() {
 		return cleanChars;
 	}
@@ -498,10 +670,11 @@ public class Corpus {
 		type = t;
 	}
 	
+	/**
+	 * A read-only view of cleanChars in reverse order
+	 */
 	public List<String> getReversed() {
-		ArrayList<String> backwardCorpus = new ArrayList<String>(cleanChars);
-		Collections.reverse(backwardCorpus);
-		return backwardCorpus;
+		return ReversedList.of(cleanChars);
 	}
 
 	public List<String> getSegmentedChars() {
@@ -511,6 +684,7 @@ public class Corpus {
 	public List<String> getSegments() {
 		ArrayList<String> segs = new ArrayList<String>();
 		String segment = new String();
+		boolean[] cutPoints = getCutPoints();
 		for (int i = 0; i < cutPoints.length; i++) {
 			boolean cut = cutPoints[i];
 			if (cut) {
@@ -548,31 +722,67 @@ public class Corpus {
 		return segments;
 	}
 	
+	/**
+	 * The corpus read backwards. Its token lists are read-only views of
+	 * the lists of this corpus, and its cut points and token ids are only
+	 * made (once) if they are used, so this is cheap to call repeatedly.
+	 */
 	public Corpus getReverseCorpus() {
 		Corpus rev = new Corpus();
 		
 		rev.type = type; 
-		
-		ArrayList<String> backwardCorpus = new ArrayList<String>(getCleanChars());
-		Collections.reverse(backwardCorpus);
-		rev.cleanChars = backwardCorpus;
-		
-		ArrayList<String> backwardSegCorpus = new ArrayList<String>(getSegmentedChars());
-		Collections.reverse(backwardSegCorpus);
-		rev.segChars = backwardSegCorpus;
-		
-		rev.cutPoints = new boolean[cutPoints.length];
-		for (int i = 0; i < cutPoints.length; i++) {
-			rev.cutPoints[i] = cutPoints[cutPoints.length-i-1];
-		}
+		rev.cleanChars = ReversedList.of(cleanChars);
+		rev.segChars = ReversedList.of(segChars);
+		rev.symbols = symbols;
+		rev.tokens = null;
+		rev.cutPoints = null;
+		rev.reverseOf = this;
 		
 		return rev;
 	}
 	
+	/**
+	 * The corpus made of the first size symbols of getSegmentedChars(),
+	 * as loadList would load them. Its token lists are read-only views of
+	 * the lists of this corpus, unless the segmented tokens are not laid
+	 * out the way loadList expects, in which case they are copied.
+	 */
 	public Corpus getSubCorpus(int size) {
-		List<String> subList = new ArrayList<String>(getSegmentedChars().subList(0, size));
-		Corpus subCorpus = Corpus.fromList(subList);
+		List<String> subList = getSegmentedChars().subList(0, size);
+		
+		Corpus subCorpus = new Corpus();
+		subCorpus.symbols = symbols;
 		subCorpus.setType(this.getType());
+		
+		// the tokens and cuts loadList would make, if the prefix has one
+		// boundary after some of the clean tokens and nothing else
+		boolean[] cuts = new boolean[size];
+		int numTokens = 0;
+		for (String s : subList) {
+			if (isBoundary(s)) {
+				if (numTokens == 0 || cuts[numTokens-1] || !s.equals(BOUNDARY)) {
+					numTokens = -1;
+					break;
+				}
+				cuts[numTokens-1] = true;
+			} else {
+				if (numTokens >= cleanChars.size() || !s.equals(cleanChars.get(numTokens))) {
+					numTokens = -1;
+					break;
+				}
+				numTokens++;
+			}
+		}
+		
+		if (numTokens <= 0) { 
+			subCorpus.loadList(new ArrayList<String>(subList));
+			return subCorpus;
+		}
+		
+		subCorpus.cleanChars = Collections.unmodifiableList(cleanChars.subList(0, numTokens));
+		subCorpus.segChars = Collections.unmodifiableList(subList);
+		subCorpus.cutPoints = Arrays.copyOf(cuts, numTokens - 1);
+		subCorpus.tokens = Arrays.copyOf(getTokens(), numTokens);
 		return subCorpus;
 	}
 	
@@ -601,6 +811,8 @@ public class Corpus {
 			System.out.println("ERROR - " + e.getMessage());
 			e.printStackTrace();
 		}
+		
+		encode();
 	}
 	
 	public Trie makeForwardTrie(int depth) {
@@ -0,0 +1,223 @@
+package edu.arizona.ve.corpus;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import edu.arizona.ve.corpus.Corpus.CorpusType;
+
+/**
+ * Preprocessed copies of the corpora loaded by Corpus.autoLoad, so the
+ * source text is only cleaned and tokenized once. A cache file holds the
+ * symbol table, the token stream as symbol ids and the cut points packed
+ * into bits. It is keyed by the path of the source file and the load
+ * mode, and it records the size and modification time of the source: an
+ * entry whose source has changed since is a miss and gets written again,
+ * so a lookup never reads the source itself.
+ *
+ * The cache is off unless ENABLED is set, since it writes a copy of every
+ * corpus loaded to CACHE_DIR.
+ *
+ * Cache files are memory-mapped when they are read, and the symbol table
+ * and token ids of the corpus come straight from the file.
+ *
+ * File layout (big endian):
+ * <pre>
+ *   int  MAGIC, int VERSION
+ *   long size of the source file, long its modification time
+ *   int  number of tokens, int number of cut points (-1 for none)
+ *   int  1 if the segmented corpus ends with a boundary, else 0
+ *   int  number of symbols
+ *   int  tokens[number of tokens]
+ *   long cut point bits, bit i of word i/64 set if there is a cut after token i
+ *   each symbol as its length and chars
+ * </pre>
+ */
+public class CorpusCache {
+
+	public static final int MAGIC = 0x56454350; // "VECP"
+	public static final int VERSION = 2;
+
+	private static final int HEADER_BYTES = 40;
+
+	/** autoLoad reads and writes the cache if this is true */
+	public static boolean ENABLED = false;
+
+	public static File CACHE_DIR = new File(System.getProperty("java.io.tmpdir"), "ve-corpus-cache");
+
+	/**
+	 * The load mode part of the key (case only matters for letters)
+	 */
+	public static String mode(CorpusType type, boolean preserveCase) {
+		String mode = type.name().toLowerCase();
+		if (type == CorpusType.LETTER)
+			mode += preserveCase ? "-case" : "-downcase";
+		return mode;
+	}
+
+	/**
+	 * Fills c from the cache entry of the source file and mode.
+	 * @return false if there is no cache entry
+	 */
+	public static boolean read(File source, String mode, Corpus c) {
+		if (!ENABLED || !source.exists())
+			return false;
+
+		File file = cacheFile(source, mode);
+		if (!file.exists())
+			return false;
+
+		try {
+			ByteBuffer buffer;
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			} finally {
+				raf.close();
+			}
+
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+				return false;
+			if (buffer.getLong(8) != source.length() || buffer.getLong(16) != source.lastModified())
+				return false;
+			int numTokens = buffer.getInt(24);
+			int numCuts = buffer.getInt(28);
+			boolean trailingBoundary = buffer.getInt(32) != 0;
+			int numSymbols = buffer.getInt(36);
+
+			buffer.position(HEADER_BYTES);
+			IntBuffer tokens = buffer.slice().asIntBuffer();
+			int cutOffset = HEADER_BYTES + 4 * numTokens;
+			buffer.position(cutOffset);
+			LongBuffer cutBits = buffer.slice().asLongBuffer();
+			int cutWords = (numCuts < 0) ? 0 : (numCuts + 63) >>> 6;
+
+			buffer.position(cutOffset + 8 * cutWords);
+			SymbolTable symbols = new SymbolTable();
+			for (int s = 0; s < numSymbols; s++) {
+				char[] chars = new char[buffer.getInt()];
+				for (int k = 0; k < chars.length; k++)
+					chars[k] = buffer.getChar();
+				symbols.intern(new String(chars));
+			}
+			int[] ids = new int[numTokens];
+			tokens.get(ids);
+
+			boolean[] cutPoints = null;
+			if (numCuts >= 0) {
+				cutPoints = new boolean[numCuts];
+				for (int i = 0; i < numCuts; i++)
+					cutPoints[i] = (cutBits.get(i >>> 6) & (1L << (i & 63))) != 0;
+			}
+
+			c.setTokens(symbols, ids, cutPoints, trailingBoundary);
+			return true;
+		} catch (IOException e) {
+			System.out.println("ERROR - could not read corpus cache " + file + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Saves c as the cache entry of the source file and mode. The segmented
+	 * corpus is rebuilt from the cut points when it is read back, so c must
+	 * have been loaded by a method where every boundary follows a cut point
+	 * (or ends the corpus); other corpora are not written.
+	 */
+	public static void write(File source, String mode, Corpus c) {
+		if (!ENABLED || !source.exists())
+			return;
+
+		List<String> cleanChars = c.getCleanChars();
+		List<String> segChars = c.getSegmentedChars();
+		boolean[] cutPoints = c.getCutPoints();
+
+		int numCuts = (cutPoints == null) ? -1 : cutPoints.length;
+		int expected = cleanChars.size();
+		for (int i = 0; i < numCuts; i++) {
+			if (cutPoints[i])
+				expected++;
+		}
+		boolean trailingBoundary = segChars.size() == expected + 1 &&
+				segChars.get(segChars.size() - 1).equals(Corpus.BOUNDARY);
+		if (segChars.size() != expected && !trailingBoundary)
+			return;
+
+		SymbolTable symbols = c.getSymbols();
+		int[] tokens = c.getTokens();
+
+		long[] cutBits = new long[(numCuts < 0) ? 0 : (numCuts + 63) >>> 6];
+		for (int i = 0; i < numCuts; i++) {
+			if (cutPoints[i])
+				cutBits[i >>> 6] |= 1L << (i & 63);
+		}
+
+		long size = source.length();
+		long modified = source.lastModified();
+		File file = cacheFile(source, mode);
+		try {
+			CACHE_DIR.mkdirs();
+			File temp = File.createTempFile("corpus", ".tmp", CACHE_DIR);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(size);
+				out.writeLong(modified);
+				out.writeInt(tokens.length);
+				out.writeInt(numCuts);
+				out.writeInt(trailingBoundary ? 1 : 0);
+				out.writeInt(symbols.size());
+				for (int t : tokens)
+					out.writeInt(t);
+				for (long bits : cutBits)
+					out.writeLong(bits);
+				for (int s = 0; s < symbols.size(); s++) {
+					String symbol = symbols.get(s);
+					out.writeInt(symbol.length());
+					out.writeChars(symbol);
+				}
+			} finally {
+				out.close();
+			}
+
+			// replaces the entry of an older version of the source
+			file.delete();
+			if (!temp.renameTo(file))
+				temp.delete();
+		} catch (IOException e) {
+			System.out.println("ERROR - could not write corpus cache " + file + ": " + e.getMessage());
+		}
+	}
+
+	static File cacheFile(File source, String mode) {
+		return new File(CACHE_DIR, hash(source.getAbsolutePath()) + "-" + mode + ".bin");
+	}
+
+	/**
+	 * SHA-1 of the path, in hex
+	 */
+	static String hash(String path) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest.digest(path.getBytes("UTF-8")))
+				hex.append(String.format("%02x", b));
+			return hex.toString();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -83,7 +83,11 @@ public class CorpusWriter {
 	}
 	
 	public static void writeCorpus(String fileName, Corpus corpus, boolean[] cuts) {
-		if (cuts.length != corpus.getCleanChars().size() - 1) {
+		writeCorpus(fileName, corpus, CutPoints.fromArray(cuts));
+	}
+	
+	public static void writeCorpus(String fileName, Corpus corpus, CutPoints cuts) {
+		if (cuts.length() != corpus.getCleanChars().size() - 1) {
 			System.out.println("ERROR: Cut point length mismatch in writer");
 		}
 		
@@ -99,7 +103,7 @@ public class CorpusWriter {
 				out.print(corpus.getCleanChars().get(i));
 
 				if (i < numCutPoints) {
-					if (cuts[i]) {
+					if (cuts.get(i)) {
 						if (spaces) out.print(" ");
 						out.print("*");
 					} 
@@ -114,10 +118,39 @@ public class CorpusWriter {
 		}
 	}
 	
+	/**
+	 * Writes tokens [from, to) and the cuts after them in the format of
+	 * writeCorpus, where cuts.get(i - from) is the cut after token i. A
+	 * segmentation can be written this way a chunk at a time.
+	 */
+	public static void writeTokens(PrintStream out, List<String> tokens, int from, int to, CutPoints cuts, boolean spaces) {
+		int numCutPoints = tokens.size() - 1;
+		for (int i = from; i < to; i++) {
+			out.print(tokens.get(i));
+
+			if (i < numCutPoints) {
+				if (cuts.get(i - from)) {
+					if (spaces) out.print(" ");
+					out.print("*");
+				}
+			}
+
+			if (spaces) out.print(" ");
+		}
+	}
+
 	public static void writeCorpus(Corpus corpus, boolean[] cuts) {
 		writeCorpus(corpus.getName() + ".txt", corpus, cuts);
 	}
 	
+	public static void writeCorpus(Corpus corpus, CutPoints cuts) {
+		writeCorpus(corpus.getName() + ".txt", corpus, cuts);
+	}
+	
+	public static String corpusToString(List<String> corpus, CutPoints cutPoints) {
+		return corpusToString(corpus, cutPoints.toArray());
+	}
+	
 	public static String corpusToString(List<String> corpus, boolean[] cutPoints) {
 		StringBuffer out = new StringBuffer();
 		out.append(corpus.get(0));
@@ -0,0 +1,357 @@
+package edu.arizona.ve.corpus;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A set of cut points packed into a long[], bit i of word i/64 set if there
+ * is a boundary after token i. Counts, differences and unions are done a
+ * word at a time, and a segmentation takes a bit per position instead of a
+ * byte (boolean[]) or a reference (List<Boolean>).
+ *
+ * Bits at or past length() are always clear.
+ */
+public class CutPoints {
+
+	private static final int WORD_BITS = 6;
+
+	// rank() and select() keep the number of cuts before every block of
+	// BLOCK_WORDS words, rebuilt after the set changes
+	private static final int BLOCK_WORDS = 8;
+
+	private final long[] words;
+	private final int length;
+	private int[] blockRanks;
+
+	public CutPoints(int length) {
+		if (length < 0)
+			throw new RuntimeException("Negative cut point length: " + length);
+		this.length = length;
+		this.words = new long[(length + 63) >>> WORD_BITS];
+	}
+
+	public CutPoints(CutPoints other) {
+		this.length = other.length;
+		this.words = other.words.clone();
+	}
+
+	public static CutPoints fromArray(boolean[] cuts) {
+		CutPoints c = new CutPoints(cuts.length);
+		for (int i = 0; i < cuts.length; i++) {
+			if (cuts[i])
+				c.words[i >>> WORD_BITS] |= 1L << i;
+		}
+		return c;
+	}
+
+	public static CutPoints fromList(List<Boolean> cuts) {
+		CutPoints c = new CutPoints(cuts.size());
+		int i = 0;
+		for (Boolean cut : cuts) {
+			if (cut)
+				c.words[i >>> WORD_BITS] |= 1L << i;
+			i++;
+		}
+		return c;
+	}
+
+	public boolean[] toArray() {
+		boolean[] cuts = new boolean[length];
+		for (int i = nextSetBit(0); i >= 0; i = nextSetBit(i + 1))
+			cuts[i] = true;
+		return cuts;
+	}
+
+	/**
+	 * A read-only view of the cut points as a list
+	 */
+	public List<Boolean> asList() {
+		return new AbstractList<Boolean>() {
+			@Override
+			public Boolean get(int index) {
+				return CutPoints.this.get(index);
+			}
+
+			@Override
+			public int size() {
+				return length;
+			}
+		};
+	}
+
+	/** The number of positions (cut or not) */
+	public int length() {
+		return length;
+	}
+
+	public boolean get(int i) {
+		check(i);
+		return (words[i >>> WORD_BITS] & (1L << i)) != 0;
+	}
+
+	public void set(int i) {
+		check(i);
+		words[i >>> WORD_BITS] |= 1L << i;
+		blockRanks = null;
+	}
+
+	public void set(int i, boolean cut) {
+		if (cut)
+			set(i);
+		else
+			clear(i);
+	}
+
+	/**
+	 * Sets every position from (inclusive) to to (exclusive)
+	 */
+	public void set(int from, int to) {
+		if (from < 0 || to > length || from > to)
+			throw new RuntimeException("Bad cut point range: " + from + "-" + to + " of " + length);
+		if (from == to)
+			return;
+
+		int first = from >>> WORD_BITS, last = (to - 1) >>> WORD_BITS;
+		long firstMask = -1L << from;
+		long lastMask = -1L >>> -to;
+		if (first == last) {
+			words[first] |= firstMask & lastMask;
+		} else {
+			words[first] |= firstMask;
+			for (int w = first + 1; w < last; w++)
+				words[w] = -1L;
+			words[last] |= lastMask;
+		}
+		blockRanks = null;
+	}
+
+	public void clear(int i) {
+		check(i);
+		words[i >>> WORD_BITS] &= ~(1L << i);
+		blockRanks = null;
+	}
+
+	private void check(int i) {
+		if (i < 0 || i >= length)
+			throw new IndexOutOfBoundsException("Cut point " + i + " of " + length);
+	}
+
+	/** The number of cuts */
+	public int cardinality() {
+		int count = 0;
+		for (long word : words)
+			count += Long.bitCount(word);
+		return count;
+	}
+
+	/**
+	 * @return the number of cuts before position i
+	 */
+	public int rank(int i) {
+		if (i <= 0)
+			return 0;
+		if (i >= length)
+			return cardinality();
+
+		int[] ranks = getBlockRanks();
+		int w = i >>> WORD_BITS;
+		int count = ranks[w / BLOCK_WORDS];
+		for (int k = w - w % BLOCK_WORDS; k < w; k++)
+			count += Long.bitCount(words[k]);
+		return count + Long.bitCount(words[w] & ((1L << i) - 1));
+	}
+
+	/**
+	 * @return the position of the k-th cut (counting from 0), or -1 if
+	 * there are not that many
+	 */
+	public int select(int k) {
+		if (k < 0)
+			return -1;
+
+		// the last block starting with at most k cuts before it
+		int[] ranks = getBlockRanks();
+		int lo = 0, hi = ranks.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (ranks[mid] <= k)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+
+		int remaining = k - ranks[lo];
+		for (int w = lo * BLOCK_WORDS; w < words.length; w++) {
+			long word = words[w];
+			int count = Long.bitCount(word);
+			if (remaining < count) {
+				for (; remaining > 0; remaining--)
+					word &= word - 1;
+				return (w << WORD_BITS) + Long.numberOfTrailingZeros(word);
+			}
+			remaining -= count;
+		}
+		return -1;
+	}
+
+	private int[] getBlockRanks() {
+		int[] ranks = blockRanks;
+		if (ranks == null) {
+			ranks = new int[Math.max(1, (words.length + BLOCK_WORDS - 1) / BLOCK_WORDS)];
+			int count = 0;
+			for (int w = 0; w < words.length; w++) {
+				if (w % BLOCK_WORDS == 0)
+					ranks[w / BLOCK_WORDS] = count;
+				count += Long.bitCount(words[w]);
+			}
+			blockRanks = ranks;
+		}
+		return ranks;
+	}
+
+	/**
+	 * @return the first cut at or after from, or -1 if there is none
+	 */
+	public int nextSetBit(int from) {
+		if (from < 0)
+			from = 0;
+		if (from >= length)
+			return -1;
+
+		int w = from >>> WORD_BITS;
+		long word = words[w] & (-1L << from);
+		while (word == 0) {
+			if (++w == words.length)
+				return -1;
+			word = words[w];
+		}
+		return (w << WORD_BITS) + Long.numberOfTrailingZeros(word);
+	}
+
+	/**
+	 * @return the last cut at or before from, or -1 if there is none
+	 */
+	public int previousSetBit(int from) {
+		if (from >= length)
+			from = length - 1;
+		if (from < 0)
+			return -1;
+
+		int w = from >>> WORD_BITS;
+		long word = words[w] & (-1L >>> (63 - (from & 63)));
+		while (word == 0) {
+			if (--w < 0)
+				return -1;
+			word = words[w];
+		}
+		return (w << WORD_BITS) + 63 - Long.numberOfLeadingZeros(word);
+	}
+
+	/**
+	 * Adds every cut of other to this set
+	 * @return this
+	 */
+	public CutPoints or(CutPoints other) {
+		checkLength(other);
+		for (int w = 0; w < words.length; w++)
+			words[w] |= other.words[w];
+		blockRanks = null;
+		return this;
+	}
+
+	/**
+	 * Removes every cut of other from this set
+	 * @return this
+	 */
+	public CutPoints andNot(CutPoints other) {
+		checkLength(other);
+		for (int w = 0; w < words.length; w++)
+			words[w] &= ~other.words[w];
+		blockRanks = null;
+		return this;
+	}
+
+	public static CutPoints union(CutPoints a, CutPoints b) {
+		return new CutPoints(a).or(b);
+	}
+
+	/**
+	 * @return the cuts of a that are not in b
+	 */
+	public static CutPoints difference(CutPoints a, CutPoints b) {
+		return new CutPoints(a).andNot(b);
+	}
+
+	/** The number of cuts in both sets */
+	public int intersectionCount(CutPoints other) {
+		checkLength(other);
+		int count = 0;
+		for (int w = 0; w < words.length; w++)
+			count += Long.bitCount(words[w] & other.words[w]);
+		return count;
+	}
+
+	/** The number of positions where the two sets differ */
+	public int differenceCount(CutPoints other) {
+		checkLength(other);
+		int count = 0;
+		for (int w = 0; w < words.length; w++)
+			count += Long.bitCount(words[w] ^ other.words[w]);
+		return count;
+	}
+
+	private void checkLength(CutPoints other) {
+		if (other.length != length)
+			throw new RuntimeException("Cut point length mismatch: " + other.length + " != " + length);
+	}
+
+	/**
+	 * The cut points of the reversed corpus: position i of the result is
+	 * position length()-1-i of this set.
+	 */
+	public CutPoints reverse() {
+		CutPoints r = new CutPoints(length);
+		int n = words.length;
+		if (n == 0)
+			return r;
+
+		// reversing whole words leaves the result shifted up by the padding
+		int shift = (n << WORD_BITS) - length;
+		for (int w = 0; w < n; w++) {
+			long word = Long.reverse(words[n - 1 - w]);
+			if (shift == 0) {
+				r.words[w] = word;
+			} else {
+				r.words[w] |= word >>> shift;
+				if (w > 0)
+					r.words[w - 1] |= word << (64 - shift);
+			}
+		}
+		return r;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof CutPoints))
+			return false;
+		CutPoints other = (CutPoints) o;
+		return length == other.length && Arrays.equals(words, other.words);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * length + Arrays.hashCode(words);
+	}
+
+	/**
+	 * the cuts as a string of 0s and 1s
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++)
+			sb.append(get(i) ? '1' : '0');
+		return sb.toString();
+	}
+}
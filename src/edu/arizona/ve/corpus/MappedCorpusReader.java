@@ -0,0 +1,366 @@
+package edu.arizona.ve.corpus;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * Loads corpus files through memory-mapped buffers and a CharsetDecoder,
+ * tokenizing the decoded chars straight into symbol ids and packed cut
+ * points. A String is only made once for each distinct symbol, and the
+ * token lists of the corpus are filled with those.
+ *
+ * The corpora are the same as the ones Corpus.load and Corpus.loadWords
+ * make (including their handling of leading and trailing separators), so
+ * those two use this reader unless ENABLED is false. Files are decoded
+ * with the default charset, as FileReader does.
+ */
+public class MappedCorpusReader {
+
+	/** Corpus.load and Corpus.loadWords go through this reader unless this is false */
+	public static boolean ENABLED = true;
+
+	/** Bytes of the file mapped at a time, a single buffer can't exceed 2GB */
+	static int WINDOW_BYTES = 1 << 28;
+
+	private static final int CHAR_BUFFER = 1 << 16;
+
+	/**
+	 * Fills c as Corpus.load(file, lowerCase) would: the letters of the
+	 * file (lowerCase), or everything but whitespace and '*', with a cut
+	 * wherever they were separated.
+	 */
+	public static void readLetters(File file, boolean lowerCase, Corpus c) throws IOException {
+		LetterTokenizer tokenizer = lowerCase ? new LowerCaseLetterTokenizer() : new LetterTokenizer();
+		decode(file, tokenizer);
+		tokenizer.tokens.fill(c, false);
+	}
+
+	/**
+	 * Fills c as Corpus.loadWords(file) would: the whitespace separated
+	 * words of the file, with a cut wherever a word starts with '*' (or
+	 * is "|").
+	 */
+	public static void readWords(File file, Corpus c) throws IOException {
+		WordTokenizer tokenizer = new WordTokenizer();
+		decode(file, tokenizer);
+		tokenizer.finish();
+		tokenizer.tokens.fill(c, tokenizer.trailingBoundary);
+	}
+
+	/**
+	 * Maps the file a window at a time and hands the decoded chars to the
+	 * tokenizer. Bytes of a char split between two windows are decoded
+	 * from the start of the next window.
+	 */
+	static void decode(File file, Tokenizer tokenizer) throws IOException {
+		CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		CharBuffer out = CharBuffer.allocate(CHAR_BUFFER);
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			long position = 0;
+			long window = WINDOW_BYTES;
+			boolean last = false;
+			while (!last) {
+				long length = Math.min(window, size - position);
+				last = (position + length == size);
+				MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+				CoderResult result;
+				do {
+					result = decoder.decode(in, out, last);
+					drain(out, tokenizer);
+				} while (result.isOverflow());
+				position += in.position();
+				// a window too small for a single char is mapped again, bigger
+				window = (in.position() == 0) ? 2 * window : WINDOW_BYTES;
+			}
+
+			CoderResult result;
+			do {
+				result = decoder.flush(out);
+				drain(out, tokenizer);
+			} while (result.isOverflow());
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static void drain(CharBuffer out, Tokenizer tokenizer) {
+		out.flip();
+		tokenizer.accept(out.array(), out.arrayOffset() + out.position(), out.arrayOffset() + out.limit());
+		out.clear();
+	}
+
+	/**
+	 * The token ids and cut bits as they are read
+	 */
+	static class TokenStream {
+		SymbolTable symbols = new SymbolTable();
+		int[] ids = new int[1 << 12];
+		long[] cuts = new long[(1 << 12) >>> 6];
+		int size;
+
+		void add(int id) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, 2 * size);
+				cuts = Arrays.copyOf(cuts, (2 * size) >>> 6);
+			}
+			ids[size++] = id;
+		}
+
+		/** a cut after the last token */
+		void cut() {
+			int i = size - 1;
+			cuts[i >>> 6] |= 1L << i;
+		}
+
+		boolean isCut(int i) {
+			return (cuts[i >>> 6] & (1L << i)) != 0;
+		}
+
+		/**
+		 * Puts the tokens in c. As in the loaders, there is no cut after
+		 * the last token.
+		 */
+		void fill(Corpus c, boolean trailingBoundary) {
+			int[] tokens = Arrays.copyOf(ids, size);
+			boolean[] cutPoints = new boolean[Math.max(size - 1, 0)];
+			for (int i = 0; i < cutPoints.length; i++)
+				cutPoints[i] = isCut(i);
+			c.setTokens(symbols, tokens, cutPoints, trailingBoundary);
+		}
+	}
+
+	static abstract class Tokenizer {
+		TokenStream tokens = new TokenStream();
+
+		abstract void accept(char[] chars, int from, int to);
+	}
+
+	/**
+	 * Corpus.load(file, false): the file is cleaned by wsClean (whitespace
+	 * and '*' become spaces, then the result is trimmed) and every other
+	 * char is a token. A run of spaces is a cut, except after "|", which
+	 * counts as a boundary itself.
+	 */
+	static class LetterTokenizer extends Tokenizer {
+		int[] charIds;
+		boolean gap;
+
+		// chars at or below ' ' are trimmed off the end of the cleaned
+		// corpus, so they are held back until something follows them
+		StringBuilder pending = new StringBuilder();
+
+		void accept(char[] chars, int from, int to) {
+			for (int k = from; k < to; k++) {
+				char c = chars[k];
+				if (Character.isWhitespace(c) || c == '*') {
+					if (pending.length() > 0)
+						pending.append(' ');
+					else
+						gap = true;
+				} else if (c <= ' ') {
+					if (tokens.size > 0)
+						pending.append(c);
+				} else {
+					for (int p = 0; p < pending.length(); p++) {
+						if (pending.charAt(p) == ' ')
+							gap = true;
+						else
+							token(pending.charAt(p));
+					}
+					pending.setLength(0);
+					token(c);
+				}
+			}
+		}
+
+		void token(char c) {
+			if (gap && tokens.size > 0 && !tokens.symbols.get(tokens.ids[tokens.size - 1]).equals("|"))
+				tokens.cut();
+			gap = false;
+			tokens.add(id(c));
+		}
+
+		int id(char c) {
+			if (charIds == null) {
+				charIds = new int[Character.MAX_VALUE + 1];
+				Arrays.fill(charIds, SymbolTable.NONE);
+			}
+			int id = charIds[c];
+			if (id == SymbolTable.NONE) {
+				id = tokens.symbols.intern(String.valueOf(c));
+				charIds[c] = id;
+			}
+			return id;
+		}
+	}
+
+	/**
+	 * Corpus.load(file, true): the letters of the file, lowercased, with
+	 * a cut wherever anything else separates two of them.
+	 */
+	static class LowerCaseLetterTokenizer extends LetterTokenizer {
+		void accept(char[] chars, int from, int to) {
+			for (int k = from; k < to; k++) {
+				char c = chars[k];
+				if (Character.isLetter(c)) {
+					if (gap && tokens.size > 0)
+						tokens.cut();
+					gap = false;
+					tokens.add(id(Character.toLowerCase(c)));
+				} else {
+					gap = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Corpus.loadWords(file): the file split on \s+ (so a leading
+	 * separator gives an empty first word) and then loaded by loadArray,
+	 * where boundary words are cuts rather than tokens.
+	 */
+	static class WordTokenizer extends Tokenizer {
+		char[] word = new char[64];
+		int length;
+		boolean inWord, started;
+		boolean leadingSeparator;
+		boolean trailingBoundary;
+
+		// distinct words, found by content through an open-addressing table
+		char[] pool = new char[1 << 12];
+		int poolSize;
+		int[] start = new int[256];
+		int[] end = new int[256];
+		int[] slots = new int[512];
+
+		WordTokenizer() {
+			Arrays.fill(slots, SymbolTable.NONE);
+		}
+
+		void accept(char[] chars, int from, int to) {
+			for (int k = from; k < to; k++) {
+				char c = chars[k];
+				if (c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r') {
+					if (inWord) {
+						endWord();
+					} else if (!started) {
+						leadingSeparator = true;
+					}
+				} else {
+					if (length == word.length)
+						word = Arrays.copyOf(word, 2 * length);
+					word[length++] = c;
+					inWord = started = true;
+				}
+			}
+		}
+
+		void finish() {
+			if (inWord)
+				endWord();
+		}
+
+		private void endWord() {
+			if (leadingSeparator) {
+				leadingSeparator = false;
+				addWord(0);
+			}
+			addWord(length);
+			length = 0;
+			inWord = false;
+		}
+
+		private void addWord(int length) {
+			boolean boundary = length > 0 && (word[0] == '*' || (length == 1 && word[0] == '|'));
+			if (boundary) {
+				if (tokens.size > 0) {
+					tokens.cut();
+					trailingBoundary = true;
+				}
+			} else {
+				tokens.add(id(length));
+				trailingBoundary = false;
+			}
+		}
+
+		private int id(int length) {
+			int hash = 0;
+			for (int k = 0; k < length; k++)
+				hash = 31 * hash + word[k];
+			int mask = slots.length - 1;
+			for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+				int id = slots[slot];
+				if (id == SymbolTable.NONE) {
+					id = add(length);
+					slots[slot] = id;
+					if (2 * tokens.symbols.size() > slots.length)
+						rehash();
+					return id;
+				}
+				if (matches(id, length))
+					return id;
+			}
+		}
+
+		private boolean matches(int id, int length) {
+			if (end[id] - start[id] != length)
+				return false;
+			for (int k = 0, p = start[id]; k < length; k++, p++) {
+				if (pool[p] != word[k])
+					return false;
+			}
+			return true;
+		}
+
+		private int add(int length) {
+			int id = tokens.symbols.intern(new String(word, 0, length));
+			if (id == start.length) {
+				start = Arrays.copyOf(start, 2 * id);
+				end = Arrays.copyOf(end, 2 * id);
+			}
+			while (poolSize + length > pool.length)
+				pool = Arrays.copyOf(pool, 2 * pool.length);
+			System.arraycopy(word, 0, pool, poolSize, length);
+			start[id] = poolSize;
+			poolSize += length;
+			end[id] = poolSize;
+			return id;
+		}
+
+		private void rehash() {
+			slots = new int[2 * slots.length];
+			Arrays.fill(slots, SymbolTable.NONE);
+			int mask = slots.length - 1;
+			for (int id = 0; id < tokens.symbols.size(); id++) {
+				int hash = 0;
+				for (int p = start[id]; p < end[id]; p++)
+					hash = 31 * hash + pool[p];
+				int slot = mix(hash) & mask;
+				while (slots[slot] != SymbolTable.NONE)
+					slot = (slot + 1) & mask;
+				slots[slot] = id;
+			}
+		}
+
+		private static int mix(int hash) {
+			hash *= 0x9E3779B9;
+			return hash ^ (hash >>> 16);
+		}
+	}
+}
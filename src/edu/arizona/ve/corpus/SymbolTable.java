@@ -0,0 +1,54 @@
+package edu.arizona.ve.corpus;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Maps tokens to dense integer ids (0, 1, 2, ...) and back.
+ */
+public class SymbolTable {
+
+	public static final int NONE = -1;
+	
+	private HashMap<String,Integer> ids = new HashMap<String,Integer>();
+	private ArrayList<String> symbols = new ArrayList<String>();
+	
+	/**
+	 * Returns the id of the token, assigning the next free id if the 
+	 * token has not been seen before.
+	 */
+	public int intern(String token) {
+		Integer id = ids.get(token);
+		if (id == null) {
+			id = symbols.size();
+			ids.put(token, id);
+			symbols.add(token);
+		}
+		return id;
+	}
+	
+	/**
+	 * Returns the id of the token, or NONE if it has never been interned.
+	 */
+	public int lookup(String token) {
+		Integer id = ids.get(token);
+		return (id == null) ? NONE : id;
+	}
+	
+	public String get(int id) {
+		return symbols.get(id);
+	}
+	
+	public int size() {
+		return symbols.size();
+	}
+	
+	public int[] encode(List<String> tokens) {
+		int[] result = new int[tokens.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = intern(tokens.get(i));
+		}
+		return result;
+	}
+}
@@ -1,10 +1,10 @@
 package edu.arizona.ve.experts;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
-import edu.arizona.ve.trie.Trie;
+import edu.arizona.ve.trie.NGramIndex;
+import edu.arizona.ve.trie.PositionStatistics;
+import edu.arizona.ve.trie.TrieCursor;
 
 /**
 *
@@ -13,42 +13,80 @@ import edu.arizona.ve.trie.Trie;
 public class BackwardEntropyExpert extends Expert {
 
 	// Make sure trie is a backward trie!
-	public BackwardEntropyExpert(Trie backwardTrie) {
+	public BackwardEntropyExpert(NGramIndex backwardTrie) {
 		super(backwardTrie);
 	}
 
 	@Override
 	public boolean[] segment(List<String> segment) {
-		int cutSize = segment.size() + 1;
-		
-		double[] scoreBEnt = new double[cutSize];
-		boolean[] votes = new boolean[cutSize];
-		
-		List<String> seg, rev;
-		for (int i = 0; i < segment.size(); ++i) {
-			seg = segment.subList(i, segment.size());
+		return votes(cut(segment, 0, segment.size()), segment.size());
+	}
+	
+	@Override
+	public boolean[] segment(PositionStatistics stats, int offset, List<String> segment) {
+		if (!stats.isBackward(_trie, PositionStatistics.BACKWARD_STD_ENTROPY))
+			return segment(segment);
+		return votes(cut(stats, offset, segment.size()), segment.size());
+	}
+	
+	@Override
+	public long vote(List<String> corpus, int offset, int window) {
+		return mask(cut(corpus, offset, window));
+	}
 	
-			rev = new ArrayList<String>(seg);
-			Collections.reverse(rev);
+	@Override
+	public long vote(PositionStatistics stats, List<String> corpus, int offset, int window) {
+		if (!stats.isBackward(_trie, PositionStatistics.BACKWARD_STD_ENTROPY))
+			return vote(corpus, offset, window);
+		return mask(cut(stats, offset, window));
+	}
+	
+	/**
+	 * The cut before the suffix of the window with the highest boundary 
+	 * entropy (0 at the end of the window), the last one on ties. The 
+	 * scan starts from scoreBEnt[1], so when that is NaN nothing beats it 
+	 * and the vote stays at 0.
+	 */
+	int cut(List<String> corpus, int offset, int window) {
+		// Walking the window from the end visits every reversed suffix 
+		// in one descent of the backward trie. Going backwards, the last 
+		// cut with the highest score is the first one found.
+		double maxBEnt = 0;
+		int cutEnt = window;
+		boolean nan = false;
+		
+		TrieCursor rev = _trie.cursor();
+		for (int i = window-1; i >= 0; --i) {
+			rev.advance(corpus.get(offset + i));
 			
 			// Backward
-			scoreBEnt[i] = _trie.getStdEntropy(rev);
+			double scoreBEnt = rev.stdEntropy();
+			if (scoreBEnt > maxBEnt) {
+				maxBEnt = scoreBEnt;
+				cutEnt = i;
+			}
+			if (i == 1)
+				nan = Double.isNaN(scoreBEnt);
 		}
 
-		double maxBEnt  = scoreBEnt[1];
+		return nan ? 0 : cutEnt;
+	}
+	
+	int cut(PositionStatistics stats, int offset, int window) {
+		int end = offset + window;
+		double maxBEnt = (window > 1) ? stats.getBackwardStdEntropy(end, window - 1) : 0;
 
 		int cutEnt = 0;
 
-		for (int i = 0; i < cutSize; ++i) {
-			if (scoreBEnt[i] >= maxBEnt) {
-				maxBEnt = scoreBEnt[i];
+		for (int i = 0; i <= window; ++i) {
+			double scoreBEnt = (i < window) ? stats.getBackwardStdEntropy(end, window - i) : 0;
+			if (scoreBEnt >= maxBEnt) {
+				maxBEnt = scoreBEnt;
 				cutEnt = i;
 			}            
 		}
-
-		votes[cutEnt] = true;
 		
-		return votes;
+		return cutEnt;
 	}
 
 }
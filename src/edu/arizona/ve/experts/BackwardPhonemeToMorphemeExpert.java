@@ -1,38 +1,55 @@
 package edu.arizona.ve.experts;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
-import edu.arizona.ve.trie.Trie;
+import edu.arizona.ve.trie.NGramIndex;
+import edu.arizona.ve.trie.PositionStatistics;
+import edu.arizona.ve.trie.TrieCursor;
 
 public class BackwardPhonemeToMorphemeExpert extends Expert {
 
-	public BackwardPhonemeToMorphemeExpert(Trie backwardTrie) {
+	public BackwardPhonemeToMorphemeExpert(NGramIndex backwardTrie) {
 		super(backwardTrie);
 	}
 
 	@Override
 	public boolean[] segment(List<String> segment) {
-		boolean[] cuts = new boolean[segment.size() + 1];
 		double[] scores = new double[segment.size() + 1]; 
 		
-		List<String> seg1, rev1;
-		List<String> seg2, rev2;
+		// rev2 is always rev1 extended by one symbol, so walking the window 
+		// from the end gives both entropies in one descent
+		TrieCursor rev = _trie.cursor();
+		rev.advance(segment.get(segment.size()-1));
 		for (int i = segment.size()-1; i >= 1; i--) {
-			seg1 = segment.subList(i, segment.size());
-			seg2 = segment.subList(i-1, segment.size());
-			
-			rev1 = new ArrayList<String>(seg1);
-			Collections.reverse(rev1);
-			
-			rev2 = new ArrayList<String>(seg2);
-			Collections.reverse(rev2);
+			double rev1 = rev.entropy();
+			rev.advance(segment.get(i-1));
+			double rev2 = rev.entropy();
 			
 			// Backward
-			scores[i-1] = _trie.getEntropy(rev2) - _trie.getEntropy(rev1);
+			scores[i-1] = rev2 - rev1;
 		}
 		
+		return vote(scores);
+	}
+	
+	@Override
+	public boolean[] segment(PositionStatistics stats, int offset, List<String> segment) {
+		if (!stats.isBackward(_trie, PositionStatistics.BACKWARD_ENTROPY))
+			return segment(segment);
+		
+		int end = offset + segment.size();
+		double[] scores = new double[segment.size() + 1]; 
+		for (int i = segment.size()-1; i >= 1; i--) {
+			int len = segment.size() - i;
+			scores[i-1] = stats.getBackwardEntropy(end, len+1) - stats.getBackwardEntropy(end, len);
+		}
+		
+		return vote(scores);
+	}
+	
+	private boolean[] vote(double[] scores) {
+		boolean[] cuts = new boolean[scores.length];
+		
 		double max = Double.NEGATIVE_INFINITY;
 		int maxIndex = 0;
 		for (int i = 1; i < scores.length; i++) {
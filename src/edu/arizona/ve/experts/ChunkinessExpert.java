@@ -1,23 +1,24 @@
 package edu.arizona.ve.experts;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 
-import edu.arizona.ve.trie.Trie;
+import edu.arizona.ve.trie.NGramIndex;
+import edu.arizona.ve.trie.PositionStatistics;
+import edu.arizona.ve.trie.TrieCursor;
+import edu.arizona.ve.util.ReversedList;
 
 public class ChunkinessExpert extends Expert {
 
-	Trie _backwardTrie;
+	NGramIndex _backwardTrie;
 	boolean _reversed = false; 
 	
-	public ChunkinessExpert(Trie trie, Trie backwardTrie) {
+	public ChunkinessExpert(NGramIndex trie, NGramIndex backwardTrie) {
 		super(trie);
 		_backwardTrie = backwardTrie;
 	}
 	
-	public ChunkinessExpert(Trie trie) {
+	public ChunkinessExpert(NGramIndex trie) {
 		super(trie);
 		throw new RuntimeException("YOU MUST USE A BACKWARD TRIE");
 	}
@@ -37,9 +38,7 @@ public class ChunkinessExpert extends Expert {
 	public double computeForwardChunkiness(List<String> s) {
 		double surp = _trie.getStdIntEntropy(s);
 		double hf = _trie.getStdEntropy(s);
-		List<String> rev = new ArrayList<String>(s);
-		Collections.reverse(rev);
-		double hb = _backwardTrie.getStdEntropy(rev);
+		double hb = _backwardTrie.getStdEntropy(ReversedList.of(s));
 		
 		return computeForwardChunkiness(hf, hb, surp);
 	}
@@ -47,9 +46,7 @@ public class ChunkinessExpert extends Expert {
 	public double computeBackwardChunkiness(List<String> s) {
 		double surp = _trie.getStdIntEntropy(s);
 		double hf = _trie.getStdEntropy(s);
-		List<String> rev = new ArrayList<String>(s);
-		Collections.reverse(rev);
-		double hb = _backwardTrie.getStdEntropy(rev);
+		double hb = _backwardTrie.getStdEntropy(ReversedList.of(s));
 		
 		return computeBackwardChunkiness(hf, hb, surp);
 	}
@@ -60,27 +57,84 @@ public class ChunkinessExpert extends Expert {
 		
 		double[] fScore = new double[cutSize];
 		Arrays.fill(fScore, Double.NEGATIVE_INFINITY);
-		boolean[] votes = new boolean[cutSize];
 		
-		List<String> seg1, seg2;
-		for (int i = 0; i <= segment.size(); ++i) {
-			seg1 = segment.subList(0,i);
-			seg2 = segment.subList(i, segment.size());
+		// seg1 is read off a single forward descent and the reversed seg2 
+		// off a single backward descent. The other direction of each still 
+		// needs its own descent per cut, but none of them copy the window.
+		double[] forwardHb = new double[cutSize];
+		double[] backwardHf = new double[cutSize];
+		double[] backwardSurp = new double[cutSize];
+		double[] backwardHb = new double[cutSize];
+		
+		TrieCursor cursor = _trie.cursor();
+		TrieCursor backCursor = _backwardTrie.cursor();
+		for (int i = 0; i < segment.size(); ++i) {
+			cursor.reset();
+			for (int j = i; j < segment.size() && cursor.advance(segment.get(j)); ++j) 
+				;
+			backwardHf[i] = cursor.stdEntropy();
+			backwardSurp[i] = cursor.stdIntEntropy();
 			
-			if (seg1.isEmpty()) {
-				fScore[i] = computeBackwardChunkiness(seg2);
-			} else if (seg2.isEmpty()) {
-				fScore[i] = computeForwardChunkiness(seg1);
-			} else {
-				fScore[i] = computeForwardChunkiness(seg1);
-				fScore[i] += computeBackwardChunkiness(seg2);
+			backCursor.reset();
+			for (int j = i; j >= 0 && backCursor.advance(segment.get(j)); --j) 
+				;
+			forwardHb[i+1] = backCursor.stdEntropy();
+		}
+		backCursor.reset();
+		for (int i = segment.size()-1; i >= 0; --i) {
+			backCursor.advance(segment.get(i));
+			backwardHb[i] = backCursor.stdEntropy();
+		}
+		
+		cursor.reset();
+		for (int i = 0; i <= segment.size(); ++i) {
+			if (i == 0) {
+				fScore[i] = computeBackwardChunkiness(backwardHf[i], backwardHb[i], backwardSurp[i]);
+				continue;
 			}
+			
+			cursor.advance(segment.get(i-1));
+			fScore[i] = computeForwardChunkiness(cursor.stdEntropy(), forwardHb[i], cursor.stdIntEntropy());
+			if (i < segment.size()) 
+				fScore[i] += computeBackwardChunkiness(backwardHf[i], backwardHb[i], backwardSurp[i]);
 		}
 
+		return vote(fScore);
+	}
+	
+	@Override
+	public boolean[] segment(PositionStatistics stats, int offset, List<String> segment) {
+		if (!stats.isForward(_trie, PositionStatistics.STD_ENTROPY | PositionStatistics.STD_INT_ENTROPY) || !stats.isBackward(_backwardTrie, PositionStatistics.BACKWARD_STD_ENTROPY))
+			return segment(segment);
+		
+		int size = segment.size();
+		int end = offset + size;
+		double[] fScore = new double[size + 1];
+		for (int i = 0; i <= size; ++i) {
+			int pos = offset + i;
+			if (i == 0) {
+				fScore[i] = computeBackwardChunkiness(stats.getStdEntropy(pos, size), 
+						stats.getBackwardStdEntropy(end, size), stats.getStdIntEntropy(pos, size));
+				continue;
+			}
+			
+			fScore[i] = computeForwardChunkiness(stats.getStdEntropy(offset, i), 
+					stats.getBackwardStdEntropy(pos, i), stats.getStdIntEntropy(offset, i));
+			if (i < size) 
+				fScore[i] += computeBackwardChunkiness(stats.getStdEntropy(pos, size - i), 
+						stats.getBackwardStdEntropy(end, size - i), stats.getStdIntEntropy(pos, size - i));
+		}
+		
+		return vote(fScore);
+	}
+	
+	private boolean[] vote(double[] fScore) {
+		boolean[] votes = new boolean[fScore.length];
+		
 		int cutF = 0;
 		double maxF = Double.NEGATIVE_INFINITY;
 		
-		for (int i = 0; i <= segment.size(); ++i) {
+		for (int i = 0; i < fScore.length; ++i) {
 			if (fScore[i] > maxF) {
 				maxF = fScore[i];
 				cutF = i;
@@ -1,8 +1,10 @@
 package edu.arizona.ve.experts;
 
+import java.util.Collections;
 import java.util.List;
 
-import edu.arizona.ve.trie.Trie;
+import edu.arizona.ve.trie.NGramIndex;
+import edu.arizona.ve.trie.PositionStatistics;
 
 
 /**
@@ -11,11 +13,64 @@ import edu.arizona.ve.trie.Trie;
 */
 public abstract class Expert {
 	
-	protected Trie _trie;
+	protected NGramIndex _trie;
 	
-	public Expert(Trie trie) {
+	public Expert(NGramIndex trie) {
 		_trie = trie;
 	}
 	
 	public abstract boolean[] segment(List<String> subSequence);
+	
+	/**
+	 * Votes on the window that starts at corpus position offset. Experts 
+	 * that can read their scores from the position table override this, 
+	 * the default just looks the window up in the trie.
+	 */
+	public boolean[] segment(PositionStatistics stats, int offset, List<String> subSequence) {
+		return segment(subSequence);
+	}
+	
+	/** The largest window vote() can answer for, with a bit per cut */
+	public static final int MAX_VOTE_WINDOW = 63;
+	
+	/**
+	 * Votes on the window corpus[offset, offset+window) without copying 
+	 * it: bit j of the result is set for a vote at cut j of the window, 
+	 * where segment() would set votes[j]. The window is at most 
+	 * MAX_VOTE_WINDOW long. Experts that pick their cuts without an array 
+	 * override this, the default adapts segment().
+	 */
+	public long vote(List<String> corpus, int offset, int window) {
+		return mask(segment(Collections.unmodifiableList(corpus.subList(offset, offset + window))));
+	}
+	
+	/**
+	 * vote() for the window at corpus position offset, reading the scores 
+	 * from the position table where the expert can
+	 */
+	public long vote(PositionStatistics stats, List<String> corpus, int offset, int window) {
+		return mask(segment(stats, offset, Collections.unmodifiableList(corpus.subList(offset, offset + window))));
+	}
+	
+	protected static long mask(boolean[] votes) {
+		long mask = 0;
+		for (int j = 0; j < votes.length; j++) {
+			if (votes[j])
+				mask |= 1L << j;
+		}
+		return mask;
+	}
+	
+	/** The single vote at cut, none if cut is -1 */
+	protected static long mask(int cut) {
+		return (cut < 0) ? 0 : 1L << cut;
+	}
+	
+	/** The votes array of segment() for a single vote at cut (or none) */
+	protected static boolean[] votes(int cut, int window) {
+		boolean[] votes = new boolean[window + 1];
+		if (cut >= 0)
+			votes[cut] = true;
+		return votes;
+	}
 }
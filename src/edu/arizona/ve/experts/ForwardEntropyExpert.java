@@ -2,7 +2,9 @@ package edu.arizona.ve.experts;
 
 import java.util.List;
 
-import edu.arizona.ve.trie.Trie;
+import edu.arizona.ve.trie.NGramIndex;
+import edu.arizona.ve.trie.PositionStatistics;
+import edu.arizona.ve.trie.TrieCursor;
 
 
 /**
@@ -11,40 +13,74 @@ import edu.arizona.ve.trie.Trie;
 */
 public class ForwardEntropyExpert extends Expert {
 
-	public ForwardEntropyExpert(Trie trie) {
+	public ForwardEntropyExpert(NGramIndex trie) {
 		super(trie);
 	}
 
 	@Override
 	public boolean[] segment(List<String> segment) {
-		int cutSize = segment.size() + 1;
-		
-		double[] scoreBEnt = new double[cutSize];
-		boolean[] votes = new boolean[cutSize];
+		return votes(cut(segment, 0, segment.size()), segment.size());
+	}
+	
+	@Override
+	public boolean[] segment(PositionStatistics stats, int offset, List<String> segment) {
+		if (!stats.isForward(_trie, PositionStatistics.STD_ENTROPY))
+			return segment(segment);
+		return votes(cut(stats, offset, segment.size()), segment.size());
+	}
+	
+	@Override
+	public long vote(List<String> corpus, int offset, int window) {
+		return mask(cut(corpus, offset, window));
+	}
+	
+	@Override
+	public long vote(PositionStatistics stats, List<String> corpus, int offset, int window) {
+		if (!stats.isForward(_trie, PositionStatistics.STD_ENTROPY))
+			return vote(corpus, offset, window);
+		return mask(cut(stats, offset, window));
+	}
+	
+	/**
+	 * The cut after the prefix of the window with the highest boundary 
+	 * entropy, the last one on ties
+	 */
+	private int cut(List<String> corpus, int offset, int window) {
+		double maxBEnt = 0;
+		int cutEnt = 1;
 
-		List<String> seg1;
-		for (int i = 1; i < cutSize; ++i) {
-			seg1 = segment.subList(0,i);
+		// One descent visits every prefix of the window
+		TrieCursor prefix = _trie.cursor();
+		for (int i = 1; i <= window; ++i) {
+			prefix.advance(corpus.get(offset + i-1));
 			
-			scoreBEnt[i]  = _trie.getStdEntropy(seg1);
+			double scoreBEnt = prefix.stdEntropy();
+			if (i == 1)
+				maxBEnt = scoreBEnt;
+			if (scoreBEnt >= maxBEnt) {
+				maxBEnt = scoreBEnt;
+				cutEnt = i;
+			}
 		}
 
-		scoreBEnt[segment.size()]  = _trie.getStdEntropy(segment);
-
-		double maxBEnt = scoreBEnt[1];
-
+		return cutEnt;
+	}
+	
+	private int cut(PositionStatistics stats, int offset, int window) {
+		double maxBEnt = 0;
 		int cutEnt = 1;
-
-		for (int i = 1; i < cutSize; ++i) {
-			if (scoreBEnt[i] >= maxBEnt) {
-				maxBEnt = scoreBEnt[i];
+		
+		for (int i = 1; i <= window; ++i) {
+			double scoreBEnt = stats.getStdEntropy(offset, i);
+			if (i == 1)
+				maxBEnt = scoreBEnt;
+			if (scoreBEnt >= maxBEnt) {
+				maxBEnt = scoreBEnt;
 				cutEnt = i;
-			}            
+			}
 		}
-
-		votes[cutEnt] = true;
 		
-		return votes;
+		return cutEnt;
 	}
 
 }
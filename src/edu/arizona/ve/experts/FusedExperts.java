@@ -0,0 +1,162 @@
+package edu.arizona.ve.experts;
+
+import java.util.List;
+import java.util.Map;
+
+import edu.arizona.ve.trie.NGramIndex;
+import edu.arizona.ve.trie.PositionStatistics;
+import edu.arizona.ve.trie.TrieCursor;
+
+/**
+ * The standard expert sets (surprisal, forward entropy, backward entropy
+ * and knowledge, as the VotingExperts factories combine them) voting in
+ * one pass over each window. Surprisal and forward entropy read the same
+ * prefixes of the forward trie, so a single descent serves both, and the
+ * weighted votes go straight into the vote array.
+ *
+ * Every expert still picks its cut with its own scores and tie rules (the
+ * backward entropy and knowledge experts through their own code), so the
+ * votes are the same as running the experts one by one.
+ */
+public class FusedExperts {
+
+	NGramIndex _forward;
+	BackwardEntropyExpert _backward;
+	KnowledgeExpert _knowledge;
+
+	// 0 for an expert that is not in the set
+	int _surprisalWeight;
+	int _forwardWeight;
+	int _backwardWeight;
+	int _knowledgeWeight;
+
+	boolean _surprisal, _forwardEntropy, _backwardEntropy, _knowledgeExpert;
+
+	private FusedExperts() {
+	}
+
+	/**
+	 * The fused form of experts, or null if they are not a standard set:
+	 * at least two of SurprisalExpert, ForwardEntropyExpert (over the same
+	 * trie as the surprisal expert), BackwardEntropyExpert and
+	 * KnowledgeExpert, each at most once and nothing else.
+	 */
+	public static FusedExperts match(Map<Expert,Integer> experts) {
+		if (experts.size() < 2)
+			return null;
+
+		FusedExperts f = new FusedExperts();
+		for (Map.Entry<Expert,Integer> e : experts.entrySet()) {
+			Expert expert = e.getKey();
+			int weight = e.getValue();
+			Class<?> type = expert.getClass();
+			if (type == SurprisalExpert.class && !f._surprisal) {
+				if (f._forwardEntropy && f._forward != expert._trie)
+					return null;
+				f._surprisal = true;
+				f._forward = expert._trie;
+				f._surprisalWeight = weight;
+			} else if (type == ForwardEntropyExpert.class && !f._forwardEntropy) {
+				if (f._surprisal && f._forward != expert._trie)
+					return null;
+				f._forwardEntropy = true;
+				f._forward = expert._trie;
+				f._forwardWeight = weight;
+			} else if (type == BackwardEntropyExpert.class && !f._backwardEntropy) {
+				f._backwardEntropy = true;
+				f._backward = (BackwardEntropyExpert) expert;
+				f._backwardWeight = weight;
+			} else if (type == KnowledgeExpert.class && !f._knowledgeExpert) {
+				f._knowledgeExpert = true;
+				f._knowledge = (KnowledgeExpert) expert;
+				f._knowledgeWeight = weight;
+			} else {
+				return null;
+			}
+		}
+		return f;
+	}
+
+	/**
+	 * Adds the weighted votes of the window corpus[offset, offset+window)
+	 * into vote, where vote[0] holds cut point base. Cut j of the window is
+	 * corpus cut point offset+j-1 and only cut points in (0, numCutPoints)
+	 * get votes, as in VotingExperts.voteWindows. stats may be null.
+	 */
+	public void vote(PositionStatistics stats, List<String> corpus, int offset, int window, int[] vote, int base, int numCutPoints) {
+		int forwardTables = (_surprisal ? PositionStatistics.STD_INT_ENTROPY : 0) | (_forwardEntropy ? PositionStatistics.STD_ENTROPY : 0);
+		boolean forwardStats = stats != null && stats.isForward(_forward, forwardTables);
+		boolean backwardStats = stats != null && _backwardEntropy && stats.isBackward(_backward._trie, PositionStatistics.BACKWARD_STD_ENTROPY);
+
+		if (_surprisal || _forwardEntropy) {
+			int surprisalCut = 1, forwardCut = 1;
+			double minIEnt = Double.MAX_VALUE, maxBEnt = 0;
+
+			// seg1 (the prefix) serves both experts, seg2 (the suffix) is
+			// only needed by surprisal
+			TrieCursor seg1 = forwardStats ? null : _forward.cursor();
+			TrieCursor seg2 = (forwardStats || !_surprisal) ? null : _forward.cursor();
+			for (int i = 1; i <= window; ++i) {
+				double stdEntropy = 0, stdIntEntropy = 0;
+				if (forwardStats) {
+					if (_forwardEntropy)
+						stdEntropy = stats.getStdEntropy(offset, i);
+					if (_surprisal)
+						stdIntEntropy = stats.getStdIntEntropy(offset, i);
+				} else {
+					seg1.advance(corpus.get(offset + i-1));
+					stdEntropy = seg1.stdEntropy();
+					stdIntEntropy = seg1.stdIntEntropy();
+				}
+
+				if (_forwardEntropy) {
+					if (i == 1)
+						maxBEnt = stdEntropy;
+					if (stdEntropy >= maxBEnt) {
+						maxBEnt = stdEntropy;
+						forwardCut = i;
+					}
+				}
+
+				if (_surprisal) {
+					double scoreIEnt = stdIntEntropy;
+					if (i < window) {
+						if (forwardStats) {
+							scoreIEnt += stats.getStdIntEntropy(offset + i, window - i);
+						} else {
+							seg2.reset();
+							for (int j = i; j < window && seg2.advance(corpus.get(offset + j)); ++j)
+								;
+							scoreIEnt += seg2.stdIntEntropy();
+						}
+					}
+					if (scoreIEnt <= minIEnt) {
+						minIEnt = scoreIEnt;
+						surprisalCut = i;
+					}
+				}
+			}
+
+			if (_surprisal)
+				add(vote, base, numCutPoints, offset + surprisalCut - 1, _surprisalWeight);
+			if (_forwardEntropy)
+				add(vote, base, numCutPoints, offset + forwardCut - 1, _forwardWeight);
+		}
+
+		if (_backwardEntropy) {
+			int cut = backwardStats ? _backward.cut(stats, offset, window) : _backward.cut(corpus, offset, window);
+			add(vote, base, numCutPoints, offset + cut - 1, _backwardWeight);
+		}
+
+		if (_knowledgeExpert) {
+			int cut = _knowledge.cut(corpus, offset, window);
+			if (cut >= 0)
+				add(vote, base, numCutPoints, offset + cut - 1, _knowledgeWeight);
+		}
+	}
+
+	private static void add(int[] vote, int base, int numCutPoints, int index, int weight) {
+		if (index > 0 && index < numCutPoints)
+			vote[index - base] += weight;
+	}
+}
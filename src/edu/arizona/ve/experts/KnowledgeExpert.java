@@ -1,9 +1,12 @@
 package edu.arizona.ve.experts;
 
-import java.util.ArrayList;
 import java.util.List;
 
-import edu.arizona.ve.trie.Trie;
+import edu.arizona.ve.corpus.Corpus;
+
+import edu.arizona.ve.trie.NGramIndex;
+import edu.arizona.ve.trie.PositionStatistics;
+import edu.arizona.ve.trie.TrieCursor;
 
 
 /**
@@ -16,41 +19,67 @@ public class KnowledgeExpert extends Expert {
 	 * Please make sure to provide a forward knowledge trie!
 	 * @param trie
 	 */
-	public KnowledgeExpert(Trie trie) {
+	public KnowledgeExpert(NGramIndex trie) {
 		super(trie);
 	}
 
 	@Override
 	public boolean[] segment(List<String> segment) {
-		int cutSize = segment.size() + 1;
-		
-		boolean[] votes = new boolean[cutSize];
-		double[] scorefKnowledge = new double[segment.size()+1];
-		for (int i = 0; i < scorefKnowledge.length; i++) {
-			scorefKnowledge[i] = Double.POSITIVE_INFINITY;
-		}
-		
+		return votes(cut(segment, 0, segment.size()), segment.size());
+	}
+	
+	@Override
+	public long vote(List<String> corpus, int offset, int window) {
+		return mask(cut(corpus, offset, window));
+	}
+	
+	@Override
+	public long vote(PositionStatistics stats, List<String> corpus, int offset, int window) {
+		return vote(corpus, offset, window);
+	}
+	
+	/**
+	 * The inner cut where the knowledge trie is least surprised by a 
+	 * boundary, the first one on ties, or -1 if it knows nothing about 
+	 * the window
+	 */
+	int cut(List<String> corpus, int offset, int window) {
 		// Special case for beginning 
 //		ArrayList<String> segK0 = new ArrayList<String>(segment); 
 //		segK0.add(0, "*");
 //		scorefKnowledge[0] = _trie.getStdIntEntropy(segK0); 
 //		System.out.println(scorefKnowledge[0] + " " + segK0);
 		
-		List<String> seg1, seg2;
-		for (int i = 1; i < segment.size(); ++i) {
-			seg1 = segment.subList(0,i);
-			seg2 = segment.subList(i, segment.size());
+		double minfKnowledgeEnt = Double.POSITIVE_INFINITY;
+
+		int cutfKnowledge = -1;
+		
+		// seg1 walks down the window once, segK1 (seg1 + "*") branches off 
+		// it at every cut. segK2 ("*" + seg2) starts from the boundary node.
+		TrieCursor seg1 = _trie.cursor();
+		TrieCursor segK1 = _trie.cursor();
+		TrieCursor segK2 = _trie.cursor();
+		TrieCursor boundary = _trie.cursor();
+		boundary.advance(Corpus.BOUNDARY);
+		
+		for (int i = 1; i < window; ++i) {
+			seg1.advance(corpus.get(offset + i-1));
 			
 			// Prior Knowledge 
-			ArrayList<String> segK1 = new ArrayList<String>(seg1); 
-			segK1.add("*");
-			scorefKnowledge[i] = _trie.getStdIntEntropy(segK1);
+			segK1.set(seg1);
+			segK1.advance(Corpus.BOUNDARY);
+			double scorefKnowledge = segK1.stdIntEntropy();
 			
-			ArrayList<String> segK2 = new ArrayList<String>(seg2);
-			segK2.add(0, "*");
-			scorefKnowledge[i] += _trie.getStdIntEntropy(segK2);
+			segK2.set(boundary);
+			for (int j = i; j < window && segK2.advance(corpus.get(offset + j)); ++j) 
+				;
+			scorefKnowledge += segK2.stdIntEntropy();
 			
-//			System.out.println(scorefKnowledge[i] + " " + segK1 + " || " + segK2);
+			// <= ? that should favor pushing the tie to the next item - do we want that?
+			if (scorefKnowledge < minfKnowledgeEnt) {
+				minfKnowledgeEnt = scorefKnowledge;
+				cutfKnowledge = i;
+			}
 		}
 
 		// special case for end
@@ -59,25 +88,10 @@ public class KnowledgeExpert extends Expert {
 //		scorefKnowledge[segment.size()] = _trie.getStdIntEntropy(segK); 
 //		System.out.println(scorefKnowledge[segment.size()] + " " + segK);
 		
-		double minfKnowledgeEnt = Double.POSITIVE_INFINITY;
-
-		int cutfKnowledge = -1;
-
-		// <= ? that should favor pushing the tie to the next item - do we want that?
-		for (int i = 0; i < scorefKnowledge.length; ++i) {
-			if (scorefKnowledge[i] < minfKnowledgeEnt) {
-				minfKnowledgeEnt = scorefKnowledge[i];
-				cutfKnowledge = i;
-			}
-		}
-
-		if (cutfKnowledge != -1) {
-			votes[cutfKnowledge] = true;
-		} else {
+//		if (cutfKnowledge == -1)
 //			System.out.println("Don't know anything about " + segment);
-		}
 		
-		return votes;
+		return cutfKnowledge;
 	}
 
 }
@@ -3,7 +3,7 @@ package edu.arizona.ve.experts;
 import java.util.ArrayList;
 import java.util.List;
 
-import edu.arizona.ve.trie.Trie;
+import edu.arizona.ve.trie.NGramIndex;
 
 public class MarkovExpert extends Expert {
 
@@ -13,7 +13,7 @@ public class MarkovExpert extends Expert {
 	 * Please make sure to provide a forward knowledge trie!
 	 * @param trie
 	 */
-	public MarkovExpert(Trie trie) {
+	public MarkovExpert(NGramIndex trie) {
 		super(trie);
 	}
 
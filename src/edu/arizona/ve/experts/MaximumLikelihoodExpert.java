@@ -7,13 +7,13 @@ import java.util.List;
 import java.util.Set;
 
 import edu.arizona.ve.corpus.Corpus;
-import edu.arizona.ve.trie.Trie;
+import edu.arizona.ve.trie.NGramIndex;
 
 public class MaximumLikelihoodExpert extends Expert {
 
 	HashMap<List<String>, int[]> _data;
 	
-	public MaximumLikelihoodExpert(Trie trie) {
+	public MaximumLikelihoodExpert(NGramIndex trie) {
 		super(trie);
 		throw new RuntimeException("USE THE OTHER CONSTRUCTOR!");
 	}
@@ -1,10 +1,10 @@
 package edu.arizona.ve.experts;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
-import edu.arizona.ve.trie.Trie;
+import edu.arizona.ve.trie.NGramIndex;
+import edu.arizona.ve.trie.PositionStatistics;
+import edu.arizona.ve.trie.TrieCursor;
 
 
 /**
@@ -12,56 +12,110 @@ import edu.arizona.ve.trie.Trie;
 * @author  Daniel Hewlett
 */
 public class MorphemeExpert extends Expert {
-	Trie _backwardTrie;
+	NGramIndex _backwardTrie;
 	
-	public MorphemeExpert(Trie trie) {
+	public MorphemeExpert(NGramIndex trie) {
 		super(trie);
 	}
 
-	public MorphemeExpert(Trie fTrie, Trie bTrie) {
+	public MorphemeExpert(NGramIndex fTrie, NGramIndex bTrie) {
 		super(fTrie);
 		_backwardTrie = bTrie;
 	}
 	
 	@Override
 	public boolean[] segment(List<String> segment) {
-		int cutSize = segment.size() + 1;
-		
-		double[] score = new double[cutSize];
-		boolean[] votes = new boolean[cutSize];
+		return votesOf(cut(segment, 0, segment.size()), segment.size());
+	}
+	
+	@Override
+	public boolean[] segment(PositionStatistics stats, int offset, List<String> segment) {
+		if (!stats.isForward(_trie, PositionStatistics.NUM_CHILDREN) || !stats.isBackward(_backwardTrie, PositionStatistics.BACKWARD_NUM_CHILDREN))
+			return segment(segment);
+		return votesOf(cut(stats, offset, segment.size()), segment.size());
+	}
+	
+	@Override
+	public long vote(List<String> corpus, int offset, int window) {
+		return maskOf(cut(corpus, offset, window));
+	}
+	
+	@Override
+	public long vote(PositionStatistics stats, List<String> corpus, int offset, int window) {
+		if (!stats.isForward(_trie, PositionStatistics.NUM_CHILDREN) || !stats.isBackward(_backwardTrie, PositionStatistics.BACKWARD_NUM_CHILDREN))
+			return vote(corpus, offset, window);
+		return maskOf(cut(stats, offset, window));
+	}
+	
+	// The expert votes for the start of the window as well as its cut
+	private static long maskOf(int cut) {
+		return (cut < 0) ? 0 : 1L | (1L << cut);
+	}
+	
+	private static boolean[] votesOf(int cut, int window) {
+		boolean[] votes = votes(cut, window);
+		if (cut >= 0)
+			votes[0] = true;
+		return votes;
+	}
+	
+	/**
+	 * The cut (after at least two symbols) with the most successors 
+	 * on both sides, the last one on ties, or -1 if it has no more than 
+	 * the threshold
+	 */
+	private int cut(List<String> corpus, int offset, int window) {
+		double maxScore = Double.NEGATIVE_INFINITY;
+		int cutPoint = 0;
 		
-		List<String> sub;
-		for (int i = 1; i < cutSize; ++i) {
-			sub = segment.subList(0,i);
+		TrieCursor sub = _trie.cursor();
+		TrieCursor rev = _backwardTrie.cursor();
+		for (int i = 1; i <= window; ++i) {
+			sub.advance(corpus.get(offset + i-1));
+			if (i < 2)
+				continue;
 			
-			List<String> rev = new ArrayList<String>(sub);
-			Collections.reverse(rev);
+			rev.reset();
+			for (int j = i-1; j >= 0 && rev.advance(corpus.get(offset + j)); --j) 
+				;
 			
-			score[i] = _trie.getChildren(sub).size() + _backwardTrie.getChildren(rev).size();
+			double score = sub.numChildren() + rev.numChildren();
+			if (score >= maxScore) {
+				maxScore = score;
+				cutPoint = i;
+			}
 		}			
 
+		return overThreshold(maxScore, cutPoint);
+	}
+	
+	private int cut(PositionStatistics stats, int offset, int window) {
 		double maxScore = Double.NEGATIVE_INFINITY;
 		int cutPoint = 0;
-		double threshold = 37;
 		
-		for (int i = 2; i < cutSize; i++) {
-			if (score[i] >= maxScore) {
-				maxScore = score[i];
+		for (int i = 2; i <= window; ++i) {
+			double score = stats.getNumChildren(offset, i) + stats.getBackwardNumChildren(offset + i, i);
+			if (score >= maxScore) {
+				maxScore = score;
 				cutPoint = i;
 			}
 		}
-
+		
+		return overThreshold(maxScore, cutPoint);
+	}
+	
+	private int overThreshold(double maxScore, int cutPoint) {
+		double threshold = 37;
 		
 		if (maxScore > threshold) {
 //			List<String> subList = segment.subList(0, cutPoint);
 //			if (subList.get(0).equals("u")) {
 //				System.out.println(subList);
 //			}
-			votes[0] = true;
-			votes[cutPoint] = true;
+			return cutPoint;
 		}
 			
-		return votes;
+		return -1;
 	}
 
 }
@@ -2,27 +2,52 @@ package edu.arizona.ve.experts;
 
 import java.util.List;
 
-import edu.arizona.ve.trie.Trie;
+import edu.arizona.ve.trie.NGramIndex;
+import edu.arizona.ve.trie.PositionStatistics;
+import edu.arizona.ve.trie.TrieCursor;
 
 public class PhonemeToMorphemeExpert extends Expert {
 
-	public PhonemeToMorphemeExpert(Trie trie) {
+	public PhonemeToMorphemeExpert(NGramIndex trie) {
 		super(trie);
 	}
 
 	@Override
 	public boolean[] segment(List<String> segment) {
-		boolean[] cuts = new boolean[segment.size() + 1];
 		double[] scores = new double[segment.size() + 1]; 
 		
+		// seg2 is always seg1 extended by one symbol, so one descent 
+		// gives both entropies
+		TrieCursor prefix = _trie.cursor();
+		prefix.advance(segment.get(0));
 		for (int i = 1; i < segment.size(); i++) {
-			List<String> seg1 = segment.subList(0, i);
-			List<String> seg2 = segment.subList(0, i+1);
+			double seg1 = prefix.entropy();
+			prefix.advance(segment.get(i));
+			double seg2 = prefix.entropy();
 			
-			double diff = _trie.getEntropy(seg2) - _trie.getEntropy(seg1);
+			double diff = seg2 - seg1;
 			scores[i+1] = diff;
 		}
 		
+		return vote(scores);
+	}
+	
+	@Override
+	public boolean[] segment(PositionStatistics stats, int offset, List<String> segment) {
+		if (!stats.isForward(_trie, PositionStatistics.ENTROPY))
+			return segment(segment);
+		
+		double[] scores = new double[segment.size() + 1]; 
+		for (int i = 1; i < segment.size(); i++) {
+			scores[i+1] = stats.getEntropy(offset, i+1) - stats.getEntropy(offset, i);
+		}
+		
+		return vote(scores);
+	}
+	
+	private boolean[] vote(double[] scores) {
+		boolean[] cuts = new boolean[scores.length];
+		
 		double max = Double.NEGATIVE_INFINITY;
 		int maxIndex = 0;
 		for (int i = 1; i < scores.length; i++) {
@@ -2,7 +2,9 @@ package edu.arizona.ve.experts;
 
 import java.util.List;
 
-import edu.arizona.ve.trie.Trie;
+import edu.arizona.ve.trie.NGramIndex;
+import edu.arizona.ve.trie.PositionStatistics;
+import edu.arizona.ve.trie.TrieCursor;
 
 /**
 *
@@ -11,38 +13,80 @@ import edu.arizona.ve.trie.Trie;
 public class SurprisalExpert extends Expert {
 
 	// What I've been calling "Internal Entropy" is more properly called "Surprisal"
-	public SurprisalExpert(Trie trie) {
+	public SurprisalExpert(NGramIndex trie) {
 		super(trie);
 	}
 
 	public boolean[] segment(List<String> segment) {
-		int cutSize = segment.size() + 1;
-		
-		double[] scoreIEnt = new double[cutSize];
-		boolean[] votes = new boolean[cutSize];
+		return votes(cut(segment, 0, segment.size()), segment.size());
+	}
+	
+	@Override
+	public boolean[] segment(PositionStatistics stats, int offset, List<String> segment) {
+		if (!stats.isForward(_trie, PositionStatistics.STD_INT_ENTROPY))
+			return segment(segment);
+		return votes(cut(stats, offset, segment.size()), segment.size());
+	}
+	
+	@Override
+	public long vote(List<String> corpus, int offset, int window) {
+		return mask(cut(corpus, offset, window));
+	}
+	
+	@Override
+	public long vote(PositionStatistics stats, List<String> corpus, int offset, int window) {
+		if (!stats.isForward(_trie, PositionStatistics.STD_INT_ENTROPY))
+			return vote(corpus, offset, window);
+		return mask(cut(stats, offset, window));
+	}
+	
+	/**
+	 * The cut where the surprisal of the two halves is lowest, the last 
+	 * one on ties
+	 */
+	private int cut(List<String> corpus, int offset, int window) {
+		int cutFreq = 1;
+		double min = Double.MAX_VALUE;
 		
-		List<String> seg1, seg2;
-		for (int i = 1; i < segment.size(); ++i) {
-			seg1 = segment.subList(0,i);
-			seg2 = segment.subList(i, segment.size());
+		// seg1 (the prefix) is extended one symbol at a time, seg2 (the 
+		// suffix) needs its own descent from the root for each cut
+		TrieCursor seg1 = _trie.cursor();
+		TrieCursor seg2 = _trie.cursor();
+		for (int i = 1; i <= window; ++i) {
+			seg1.advance(corpus.get(offset + i-1));
 			
-			scoreIEnt[i] = _trie.getStdIntEntropy(seg1) + _trie.getStdIntEntropy(seg2);
+			double scoreIEnt = seg1.stdIntEntropy();
+			if (i < window) {
+				seg2.reset();
+				for (int j = i; j < window && seg2.advance(corpus.get(offset + j)); ++j) 
+					;
+				scoreIEnt += seg2.stdIntEntropy();
+			}
+			
+			if (scoreIEnt <= min) {
+				min = scoreIEnt;
+				cutFreq = i;
+			}
 		}
 
-		scoreIEnt[segment.size()] = _trie.getStdIntEntropy(segment);
-
+		return cutFreq;
+	}
+	
+	private int cut(PositionStatistics stats, int offset, int window) {
 		int cutFreq = 1;
 		double min = Double.MAX_VALUE;
-		for (int i = 1; i <= segment.size(); ++i) {
-			if (scoreIEnt[i] <= min) {
-				min = scoreIEnt[i];
+		for (int i = 1; i <= window; ++i) {
+			double scoreIEnt = stats.getStdIntEntropy(offset, i);
+			if (i < window)
+				scoreIEnt += stats.getStdIntEntropy(offset + i, window - i);
+			
+			if (scoreIEnt <= min) {
+				min = scoreIEnt;
 				cutFreq = i;
 			}
 		}
-
-		votes[cutFreq] = true;
 		
-		return votes;
+		return cutFreq;
 	}
 
 }
@@ -1,28 +1,35 @@
 package edu.arizona.ve.mdl;
 
-import java.util.HashMap;
-import java.util.List;
+import java.util.Arrays;
 
 import edu.arizona.ve.algorithm.EntropyMDL.Model;
 import edu.arizona.ve.corpus.Corpus;
 import edu.arizona.ve.corpus.Corpus.CorpusType;
+import edu.arizona.ve.corpus.CutPoints;
 import edu.arizona.ve.util.NF;
 import edu.arizona.ve.util.Stats;
 
 public class MDL {
 
 	public static double computeDescriptionLength(Corpus corpus, boolean[] cutPoints) {
+		return computeDescriptionLength(corpus, CutPoints.fromArray(cutPoints));
+	}
+	
+	public static double computeDescriptionLength(Corpus corpus, CutPoints cutPoints) {
 
 		int totalWords = 0;
-		HashMap<List<String>,Integer> lexicon = new HashMap<List<String>,Integer>();
-		List<List<String>> segments = corpus.getSegments(cutPoints);
-		for (List<String> seg : segments) {
+		int[] tokens = corpus.getTokens();
+		Lexicon lexicon = new Lexicon(tokens);
+		int start = 0;
+		for (int cut = cutPoints.nextSetBit(0); cut >= 0 && cut < tokens.length - 1; cut = cutPoints.nextSetBit(cut + 1)) {
+			lexicon.add(start, cut + 1);
+			totalWords++;
+			start = cut + 1;
+		}
+		if (tokens.length > 0) {
+			lexicon.add(start, tokens.length);
 			totalWords++;
-			if (lexicon.containsKey(seg)) { lexicon.put(seg, lexicon.get(seg) + 1); } 
-			else { lexicon.put(seg, 1);	}
 		}
-		
-		assert (totalWords == segments.size());
 		
 		// Here's the Argamon cost of the lexicon
 //		double b = Stats.entropy(charFreq); // b is the entropy of the character distribution
@@ -32,22 +39,20 @@ public class MDL {
 //		}
 		
 		// Here's the Zhikov cost of the lexicon
-		HashMap<String, Integer> letterCounts = new HashMap<String, Integer>();
+		int[] letterCounts = new int[corpus.getSymbols().size()];
 		int total = 0;
-		for (List<String> word : lexicon.keySet()) {
-			total += word.size();
-			for (String letter : word) {
-				if (letterCounts.containsKey(letter)) {
-					letterCounts.put(letter, letterCounts.get(letter) + 1);
-				} else {
-					letterCounts.put(letter, 1);
-				}
+		for (int w = 0; w < lexicon.size(); w++) {
+			total += lexicon.end[w] - lexicon.start[w];
+			for (int k = lexicon.start[w]; k < lexicon.end[w]; k++) {
+				letterCounts[tokens[k]]++;
 			}
 		}
 		double totalDouble = (double) total;
 		double lexiconCost = 0.0;
-		for (String letter : letterCounts.keySet()) {
-			double letterCount = (double) letterCounts.get(letter);
+		for (int letter = 0; letter < letterCounts.length; letter++) {
+			if (letterCounts[letter] == 0) 
+				continue;
+			double letterCount = (double) letterCounts[letter];
 			double letterProb = letterCount / totalDouble;
 			
 			lexiconCost -= letterCount * Stats.log(letterProb);
@@ -55,14 +60,14 @@ public class MDL {
 		
 		// Now the corpus encoding cost
 		double corpusCost = 0;
-		for (List<String> word : lexicon.keySet()) {
-			corpusCost += lexicon.get(word) * (Stats.log(lexicon.get(word)) - (Stats.log(totalWords) ));
+		for (int w = 0; w < lexicon.size(); w++) {
+			corpusCost += lexicon.count[w] * (Stats.log(lexicon.count[w]) - (Stats.log(totalWords) ));
 		}
 		corpusCost = -corpusCost;
 		
 		double totalCost = lexiconCost + corpusCost; 
 //		// Parameters...
-		totalCost += ((lexicon.size() - 1.0) / 2.0) * Stats.log(segments.size());
+		totalCost += ((lexicon.size() - 1.0) / 2.0) * Stats.log(totalWords);
 
 		// This term is just a constant for any given corpus, so is not really needed
 //		totalCost += ((letterCounts.size() - 1.0) / 2.0) * Stats.log(corpus.getCleanChars().size());
@@ -76,6 +81,99 @@ public class MDL {
 	}
 	
 	
+	/**
+	 * The distinct words of a segmentation, each stored as the range of its
+	 * first occurrence in the token ids, in order of first occurrence.
+	 * Words are found through an open-addressing table of word indices, so 
+	 * no list is built per segment.
+	 */
+	static class Lexicon {
+		int[] tokens;
+		
+		int size;
+		int[] start = new int[64];
+		int[] end = new int[64];
+		int[] count = new int[64];
+		int[] hash = new int[64];
+		
+		int[] table = new int[128];
+		
+		Lexicon(int[] tokens) {
+			this.tokens = tokens;
+			Arrays.fill(table, -1);
+		}
+		
+		int size() {
+			return size;
+		}
+		
+		/** counts one occurrence of tokens[from, to) */
+		void add(int from, int to) {
+			int h = 1;
+			for (int k = from; k < to; k++) 
+				h = 31 * h + tokens[k];
+			
+			int mask = table.length - 1;
+			for (int slot = mix(h) & mask; ; slot = (slot + 1) & mask) {
+				int w = table[slot];
+				if (w == -1) {
+					insert(slot, from, to, h);
+					return;
+				}
+				if (hash[w] == h && equals(w, from, to)) {
+					count[w]++;
+					return;
+				}
+			}
+		}
+		
+		private boolean equals(int w, int from, int to) {
+			if (end[w] - start[w] != to - from) 
+				return false;
+			for (int a = start[w], b = from; b < to; a++, b++) {
+				if (tokens[a] != tokens[b]) 
+					return false;
+			}
+			return true;
+		}
+		
+		private void insert(int slot, int from, int to, int h) {
+			if (size == start.length) {
+				start = Arrays.copyOf(start, 2 * size);
+				end = Arrays.copyOf(end, 2 * size);
+				count = Arrays.copyOf(count, 2 * size);
+				hash = Arrays.copyOf(hash, 2 * size);
+			}
+			start[size] = from;
+			end[size] = to;
+			count[size] = 1;
+			hash[size] = h;
+			table[slot] = size++;
+			
+			if (2 * size > table.length) 
+				rehash();
+		}
+		
+		private void rehash() {
+			table = new int[2 * table.length];
+			Arrays.fill(table, -1);
+			int mask = table.length - 1;
+			for (int w = 0; w < size; w++) {
+				int slot = mix(hash[w]) & mask;
+				while (table[slot] != -1) 
+					slot = (slot + 1) & mask;
+				table[slot] = w;
+			}
+		}
+		
+		private static int mix(int h) {
+			h ^= (h >>> 16);
+			h *= 0x85ebca6b;
+			h ^= (h >>> 13);
+			return h;
+		}
+	}
+	
 	/**
 	 * @param args
 	 */
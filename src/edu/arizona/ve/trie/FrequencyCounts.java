@@ -0,0 +1,67 @@
+package edu.arizona.ve.trie;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The number of distinct n-grams of each length that have each frequency.
+ * Kept up to date as the counts of single n-grams change, it gives the
+ * per-length statistics of their surprisal without visiting the n-grams
+ * (see KnowledgeIndex.update and KnowledgeTrieUpdater.update).
+ */
+public class FrequencyCounts {
+
+	// frequencies below SMALL are counted in an array, the rest in a map
+	static final int SMALL = 1024;
+
+	int[][] small;
+	List<TreeMap<Integer,Integer>> large;
+
+	public FrequencyCounts(int maxLength) {
+		small = new int[maxLength + 1][SMALL];
+		large = new ArrayList<TreeMap<Integer,Integer>>();
+		for (int length = 0; length <= maxLength; length++)
+			large.add(new TreeMap<Integer,Integer>());
+	}
+
+	/**
+	 * adds count n-grams of the given length and frequency (n-grams with
+	 * no occurrences are not counted)
+	 */
+	public void add(int length, int freq, int count) {
+		if (freq <= 0 || length >= small.length)
+			return;
+
+		if (freq < SMALL) {
+			small[length][freq] += count;
+			return;
+		}
+
+		TreeMap<Integer,Integer> counts = large.get(length);
+		Integer old = counts.get(freq);
+		int n = (old == null ? 0 : old) + count;
+		if (n == 0)
+			counts.remove(freq);
+		else
+			counts.put(freq, n);
+	}
+
+	/**
+	 * The statistics of the surprisal -log(freq / totalFreq) of the n-grams
+	 * of one length, in the intEnt fields (the others are not filled in).
+	 */
+	public StatNode statistics(int length, double totalFreq) {
+		StatNode stat = new StatNode();
+		int[] counts = small[length];
+		for (int freq = 1; freq < SMALL; freq++) {
+			if (counts[freq] != 0)
+				stat.add(0, -Math.log(freq / totalFreq), 0, counts[freq]);
+		}
+		for (Map.Entry<Integer,Integer> e : large.get(length).entrySet())
+			stat.add(0, -Math.log(e.getKey() / totalFreq), 0, e.getValue());
+		stat.calculate();
+		return stat;
+	}
+}
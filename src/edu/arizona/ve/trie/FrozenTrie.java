@@ -0,0 +1,343 @@
+package edu.arizona.ve.trie;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import edu.arizona.ve.corpus.SymbolTable;
+
+/**
+ * A read-only trie stored in a file and read through memory-mapped
+ * buffers, so opening one costs only the symbol table and lookups run
+ * directly against the file. Written once from a Trie with write().
+ *
+ * File layout (big endian):
+ * <pre>
+ *   int    MAGIC, int VERSION
+ *   int    depth of the trie
+ *   int    number of symbols, then each symbol (writeUTF), id order
+ *   long   number of nodes
+ *   nodes  NODE_BYTES each, in level order, the root first
+ * </pre>
+ * A node is its symbol id, the index of its first child and the number of
+ * children (the children of a node are consecutive and sorted by symbol
+ * id), followed by freq, boundary entropy, standardized boundary entropy
+ * and standardized internal entropy as doubles, so the answers are the
+ * same as the Trie it was written from.
+ */
+public class FrozenTrie implements NGramIndex {
+
+	public static final int MAGIC = 0x56455452; // "VETR"
+	public static final int VERSION = 1;
+
+	static final int NODE_BYTES = 48;
+
+	// Offsets within a node
+	static final int SYMBOL = 0;
+	static final int FIRST_CHILD = 4;
+	static final int NUM_CHILDREN = 8;
+	static final int FREQ = 16;
+	static final int ENTROPY = 24;
+	static final int STD_ENTROPY = 32;
+	static final int STD_INT_ENTROPY = 40;
+
+	// Nodes are mapped in chunks, as a single buffer can't exceed 2GB
+	static final int CHUNK_BITS = 24;
+	static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+	public static final int ROOT = 0;
+	public static final int NONE = -1;
+
+	int depth;
+	SymbolTable symbols;
+	long numNodes;
+	ByteBuffer[] chunks;
+
+	private FrozenTrie() {
+	}
+
+	/**
+	 * Maps a trie file written by write()
+	 */
+	public static FrozenTrie open(File file) {
+		FrozenTrie trie = new FrozenTrie();
+		try {
+			long offset;
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (in.readInt() != MAGIC)
+					throw new RuntimeException("Not a trie file: " + file);
+				int version = in.readInt();
+				if (version != VERSION)
+					throw new RuntimeException("Unsupported trie file version " + version + ": " + file);
+
+				trie.depth = in.readInt();
+				int numSymbols = in.readInt();
+				trie.symbols = new SymbolTable();
+				offset = 16;
+				for (int i = 0; i < numSymbols; i++) {
+					String s = in.readUTF();
+					trie.symbols.intern(s);
+					offset += 2 + utfLength(s);
+				}
+				trie.numNodes = in.readLong();
+				offset += 8;
+			} finally {
+				in.close();
+			}
+
+			int numChunks = (int) ((trie.numNodes + CHUNK_MASK) >>> CHUNK_BITS);
+			trie.chunks = new ByteBuffer[numChunks];
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				for (int k = 0; k < numChunks; k++) {
+					long first = (long) k << CHUNK_BITS;
+					long nodes = Math.min(trie.numNodes - first, 1L << CHUNK_BITS);
+					// the mappings stay valid after the channel is closed
+					trie.chunks[k] = channel.map(FileChannel.MapMode.READ_ONLY, offset + first * NODE_BYTES, nodes * NODE_BYTES);
+				}
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return trie;
+	}
+
+	private static int utfLength(String s) {
+		int length = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= 0x0001 && c <= 0x007F)
+				length += 1;
+			else if (c > 0x07FF)
+				length += 3;
+			else
+				length += 2;
+		}
+		return length;
+	}
+
+	/**
+	 * Writes the trie (after generateStatistics) in the format read by
+	 * open(). The nodes are written one level at a time, so only one level
+	 * is held in memory besides the trie itself.
+	 */
+	public static void write(Trie root, File file) {
+		final SymbolTable symbols = new SymbolTable();
+		final long[] numNodes = new long[1];
+		root.walk(new TrieVisitor() {
+			public boolean visit(Trie node, int length) {
+				if (length > 0)
+					symbols.intern(node.symbol);
+				numNodes[0]++;
+				return true;
+			}
+		});
+
+		Comparator<Trie> bySymbol = new Comparator<Trie>() {
+			public int compare(Trie a, Trie b) {
+				return symbols.lookup(a.symbol) - symbols.lookup(b.symbol);
+			}
+		};
+
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(root.maxDepthSeen);
+				out.writeInt(symbols.size());
+				for (int i = 0; i < symbols.size(); i++)
+					out.writeUTF(symbols.get(i));
+				out.writeLong(numNodes[0]);
+
+				// the children of level[i] get the next indices after everything so far
+				List<Trie> level = new ArrayList<Trie>();
+				level.add(root);
+				long next = 1;
+				while (!level.isEmpty()) {
+					List<Trie> nextLevel = new ArrayList<Trie>();
+					for (Trie node : level) {
+						Trie[] children = node.children.values().toArray(new Trie[node.children.size()]);
+						Arrays.sort(children, bySymbol);
+
+						writeNode(out, node, (node == root) ? NONE : symbols.lookup(node.symbol), next, children.length);
+						next += children.length;
+						nextLevel.addAll(Arrays.asList(children));
+					}
+					level = nextLevel;
+				}
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void writeNode(DataOutputStream out, Trie node, int symbol, long firstChild, int numChildren) throws IOException {
+		if (firstChild > Integer.MAX_VALUE)
+			throw new RuntimeException("Too many nodes for a trie file: " + firstChild);
+
+		out.writeInt(symbol);
+		out.writeInt(numChildren == 0 ? NONE : (int) firstChild);
+		out.writeInt(numChildren);
+		out.writeInt(0);
+		out.writeDouble(node.freq);
+		out.writeDouble(node.boundaryEntropy);
+		out.writeDouble(node.stdBoundaryEntropy);
+		out.writeDouble(node.stdInternalEntropy);
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public SymbolTable getSymbols() {
+		return symbols;
+	}
+
+	public long size() {
+		return numNodes;
+	}
+
+	private ByteBuffer chunk(int node) {
+		return chunks[node >>> CHUNK_BITS];
+	}
+
+	private int position(int node, int field) {
+		return (node & CHUNK_MASK) * NODE_BYTES + field;
+	}
+
+	private int getInt(int node, int field) {
+		return chunk(node).getInt(position(node, field));
+	}
+
+	private double getDouble(int node, int field) {
+		return chunk(node).getDouble(position(node, field));
+	}
+
+	/**
+	 * binary search over the children of node, which are sorted by symbol
+	 * @return the child for the symbol id, or NONE
+	 */
+	public int getChild(int node, int symbol) {
+		int lo = getInt(node, FIRST_CHILD);
+		int hi = lo + getInt(node, NUM_CHILDREN) - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int s = getInt(mid, SYMBOL);
+			if (s < symbol)
+				lo = mid + 1;
+			else if (s > symbol)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+		return NONE;
+	}
+
+	private int find(List<String> sequence) {
+		Cursor c = new Cursor();
+		for (int i = 0; i < sequence.size() && c.node != NONE; i++)
+			c.advance(sequence.get(i));
+		return c.node;
+	}
+
+	public double getFreq(List<String> sequence) {
+		int node = find(sequence);
+		return (node == NONE) ? 0 : getDouble(node, FREQ);
+	}
+
+	public double getEntropy(List<String> sequence) {
+		int node = find(sequence);
+		return (node == NONE) ? 0 : getDouble(node, ENTROPY);
+	}
+
+	public double getStdEntropy(List<String> sequence) {
+		int node = find(sequence);
+		return (node == NONE) ? 0 : getDouble(node, STD_ENTROPY);
+	}
+
+	public double getStdIntEntropy(List<String> sequence) {
+		int node = find(sequence);
+		return (node == NONE) ? Double.POSITIVE_INFINITY : getDouble(node, STD_INT_ENTROPY);
+	}
+
+	public int getNumChildren(List<String> sequence) {
+		int node = find(sequence);
+		return (node == NONE) ? 0 : getInt(node, NUM_CHILDREN);
+	}
+
+	public TrieCursor cursor() {
+		return new Cursor();
+	}
+
+	public class Cursor implements TrieCursor {
+		int node = ROOT;
+		int depth = 0;
+
+		public void reset() {
+			node = ROOT;
+			depth = 0;
+		}
+
+		public void set(TrieCursor other) {
+			Cursor c = (Cursor) other;
+			node = c.node;
+			depth = c.depth;
+		}
+
+		public boolean advance(String s) {
+			if (node != NONE) {
+				int sym = symbols.lookup(s);
+				node = (sym == SymbolTable.NONE) ? NONE : getChild(node, sym);
+			}
+			depth++;
+			return node != NONE;
+		}
+
+		public boolean isValid() {
+			return node != NONE;
+		}
+
+		public int depth() {
+			return depth;
+		}
+
+		public double freq() {
+			return (node == NONE) ? 0 : getDouble(node, FREQ);
+		}
+
+		public double entropy() {
+			return (node == NONE) ? 0 : getDouble(node, ENTROPY);
+		}
+
+		public double stdEntropy() {
+			return (node == NONE) ? 0 : getDouble(node, STD_ENTROPY);
+		}
+
+		public double stdIntEntropy() {
+			return (node == NONE) ? Double.POSITIVE_INFINITY : getDouble(node, STD_INT_ENTROPY);
+		}
+
+		public int numChildren() {
+			return (node == NONE) ? 0 : getInt(node, NUM_CHILDREN);
+		}
+	}
+}
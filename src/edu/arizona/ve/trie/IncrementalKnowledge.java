@@ -0,0 +1,15 @@
+package edu.arizona.ve.trie;
+
+/**
+ * The knowledge of the bootstrap iterations of BVE, moved from one set of
+ * cut points to the next instead of being built again (see KnowledgeIndex
+ * and KnowledgeTrieUpdater).
+ */
+public interface IncrementalKnowledge {
+
+	/** @return the knowledge for newCuts */
+	public NGramIndex update(boolean[] newCuts);
+
+	/** The number of cut points that changed in the last call to update */
+	public int getLastChanges();
+}
@@ -0,0 +1,493 @@
+package edu.arizona.ve.trie;
+
+import java.util.Arrays;
+import java.util.List;
+
+import edu.arizona.ve.corpus.Corpus;
+import edu.arizona.ve.corpus.SymbolTable;
+import edu.arizona.ve.util.ReversedList;
+
+/**
+ * A compact alternative to {@link Trie} for large corpora. Tokens are
+ * interned to int ids and the nodes live in flat primitive arrays (node ids
+ * index into them), so there is no object per node. Children are found
+ * through a single open-addressing table keyed by (parent, symbol).
+ *
+ * Only raw counts and boundary entropies are stored per node. Internal
+ * entropies and all standardized values are computed on demand from the
+ * per-depth means and standard deviations, using the same formulas as Trie.
+ */
+public class IntTrie implements NGramIndex {
+
+	public static final int ROOT = 0;
+	public static final int NONE = -1;
+
+	private static final long EMPTY = -1L;
+
+	public int maxDepthSeen = 0;
+
+	private SymbolTable symbols;
+
+	// Nodes, indexed by node id
+	private int size;
+	private int[] count;
+	private int[] symbol;
+	private int[] firstChild;
+	private int[] nextSibling;
+	private int[] numChildren;
+	private double[] entropy;
+
+	// Child lookup table, keyed by (parent << 32 | symbol)
+	private long[] keys;
+	private int[] values;
+	private int used;
+
+	// Per-depth statistics, index 0 (the root) is unused
+	private double[] meanFreq, stdDevFreq;
+	private double[] meanIntEnt, stdDevIntEnt;
+	private double[] meanEnt, stdDevEnt;
+
+	public IntTrie() {
+		this(new SymbolTable());
+	}
+
+	public IntTrie(SymbolTable symbols) {
+		this.symbols = symbols;
+
+		int capacity = 1024;
+		count = new int[capacity];
+		symbol = new int[capacity];
+		firstChild = new int[capacity];
+		nextSibling = new int[capacity];
+		numChildren = new int[capacity];
+
+		keys = new long[2 * capacity];
+		Arrays.fill(keys, EMPTY);
+		values = new int[2 * capacity];
+
+		newNode(SymbolTable.NONE);
+	}
+
+	public SymbolTable getSymbolTable() {
+		return symbols;
+	}
+
+	/** The number of nodes, including the root */
+	public int size() {
+		return size;
+	}
+
+	// Construction
+
+	public void addAll(List<String> tokens, int windowSize) {
+		addAll(symbols.encode(tokens), windowSize);
+	}
+
+	public void addAll(int[] tokens, int windowSize) {
+		for (int i = 0; i < tokens.length; ++i) {
+			put(tokens, i, Math.min(i + windowSize, tokens.length));
+		}
+	}
+
+	/**
+	 * Counts one occurrence of tokens[start..end) and of each of its prefixes.
+	 */
+	public void put(int[] tokens, int start, int end) {
+		maxDepthSeen = Math.max(maxDepthSeen, end - start);
+
+		int node = ROOT;
+		count[node]++;
+		for (int i = start; i < end; i++) {
+			int child = getChild(node, tokens[i]);
+			if (child == NONE) {
+				child = addChild(node, tokens[i]);
+			}
+			node = child;
+			count[node]++;
+		}
+	}
+
+	/**
+	 * The child of node for sym, added (with a count of 0) if there is none.
+	 */
+	int getOrAddChild(int node, int sym) {
+		int child = getChild(node, sym);
+		return (child == NONE) ? addChild(node, sym) : child;
+	}
+
+	void addCount(int node, int delta) {
+		count[node] += delta;
+	}
+
+	/** Sets every count to 0, keeping the nodes to be counted again */
+	void clearCounts() {
+		Arrays.fill(count, 0, size, 0);
+	}
+
+	private int newNode(int sym) {
+		if (size == count.length) {
+			int capacity = 2 * size;
+			count = Arrays.copyOf(count, capacity);
+			symbol = Arrays.copyOf(symbol, capacity);
+			firstChild = Arrays.copyOf(firstChild, capacity);
+			nextSibling = Arrays.copyOf(nextSibling, capacity);
+			numChildren = Arrays.copyOf(numChildren, capacity);
+		}
+
+		int node = size++;
+		symbol[node] = sym;
+		firstChild[node] = NONE;
+		nextSibling[node] = NONE;
+		return node;
+	}
+
+	private int addChild(int parent, int sym) {
+		int child = newNode(sym);
+		nextSibling[child] = firstChild[parent];
+		firstChild[parent] = child;
+		numChildren[parent]++;
+
+		if (2 * (used + 1) > keys.length) {
+			rehash(2 * keys.length);
+		}
+		insert(key(parent, sym), child);
+		return child;
+	}
+
+	private static long key(int parent, int sym) {
+		return ((long) parent << 32) | (sym & 0xFFFFFFFFL);
+	}
+
+	private static int slot(long key, int mask) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	private void insert(long key, int value) {
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		while (keys[i] != EMPTY) {
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		used++;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+
+		keys = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		values = new int[capacity];
+		used = 0;
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				insert(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+
+	/**
+	 * Computes the boundary entropy of every node and the per-depth
+	 * statistics used for standardization. Visits the trie level by level.
+	 */
+	public void generateStatistics() {
+		entropy = new double[size];
+
+		meanFreq = new double[maxDepthSeen + 1];
+		stdDevFreq = new double[maxDepthSeen + 1];
+		meanIntEnt = new double[maxDepthSeen + 1];
+		stdDevIntEnt = new double[maxDepthSeen + 1];
+		meanEnt = new double[maxDepthSeen + 1];
+		stdDevEnt = new double[maxDepthSeen + 1];
+
+		int[] level = new int[size];
+		int[] next = new int[size];
+		level[0] = ROOT;
+		int levelSize = 1;
+
+		for (int d = 0; levelSize > 0; d++) {
+			int nextSize = 0;
+			for (int i = 0; i < levelSize; i++) {
+				int node = level[i];
+				calculateEntropy(node);
+				for (int c = firstChild[node]; c != NONE; c = nextSibling[c]) {
+					next[nextSize++] = c;
+				}
+			}
+
+			if (d > 0) {
+				calculateStatistics(d, level, levelSize);
+			}
+
+			int[] tmp = level;
+			level = next;
+			next = tmp;
+			levelSize = nextSize;
+		}
+	}
+
+	private void calculateEntropy(int node) {
+		double sum = 0;
+		for (int c = firstChild[node]; c != NONE; c = nextSibling[c]) {
+			sum += count[c];
+		}
+
+		double h = 0;
+		if (sum > 0) {
+			double norm = 1.0 / sum;
+			for (int c = firstChild[node]; c != NONE; c = nextSibling[c]) {
+				double f = norm * count[c];
+				h += (-f * Math.log(f));
+			}
+		}
+		entropy[node] = h;
+	}
+
+	private void calculateStatistics(int d, int[] nodes, int n) {
+		StatNode stat = new StatNode();
+		for (int i = 0; i < n; i++) {
+			stat.add(count[nodes[i]], internalEntropy(nodes[i]), entropy[nodes[i]]);
+		}
+		stat.calculate();
+
+		meanFreq[d] = stat.meanFreq;
+		meanIntEnt[d] = stat.meanIntEnt;
+		meanEnt[d] = stat.meanEnt;
+		stdDevFreq[d] = stat.stdDevFreq;
+		stdDevIntEnt[d] = stat.stdDevIntEnt;
+		stdDevEnt[d] = stat.stdDevEnt;
+	}
+
+	// Node level queries
+
+	public int getChild(int node, int sym) {
+		long key = key(node, sym);
+		int mask = keys.length - 1;
+		for (int i = slot(key, mask); keys[i] != EMPTY; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return values[i];
+			}
+		}
+		return NONE;
+	}
+
+	/** Returns the node for tokens[start..end), or NONE */
+	public int find(int[] tokens, int start, int end) {
+		int node = ROOT;
+		for (int i = start; i < end && node != NONE; i++) {
+			node = getChild(node, tokens[i]);
+		}
+		return node;
+	}
+
+	public int find(List<String> sequence) {
+		if (sequence == null) {
+			return ROOT;
+		}
+
+		int node = ROOT;
+		for (int i = 0; i < sequence.size() && node != NONE; i++) {
+			int sym = symbols.lookup(sequence.get(i));
+			node = (sym == SymbolTable.NONE) ? NONE : getChild(node, sym);
+		}
+		return node;
+	}
+
+	public int getSymbol(int node) {
+		return symbol[node];
+	}
+
+	public int getFirstChild(int node) {
+		return firstChild[node];
+	}
+
+	public int getNextSibling(int node) {
+		return nextSibling[node];
+	}
+
+	public int getCount(int node) {
+		return count[node];
+	}
+
+	public int getNumChildren(int node) {
+		return numChildren[node];
+	}
+
+	public double getEntropy(int node) {
+		return entropy[node];
+	}
+
+	public double getIntEntropy(int node) {
+		if (node == ROOT) {
+			return 0;
+		}
+		return internalEntropy(node);
+	}
+
+	private double internalEntropy(int node) {
+		double probability = ((double) count[node]) / count[ROOT];
+		return -Math.log(probability);
+	}
+
+	// The standardized values need the depth of the node, which is the
+	// length of the sequence that led to it
+
+	public double getStdFreq(int node, int depth) {
+		if (depth == 0) {
+			return 0;
+		}
+		return (stdDevFreq[depth] == 0) ? 0 : (count[node] - meanFreq[depth]) / stdDevFreq[depth];
+	}
+
+	public double getStdIntEntropy(int node, int depth) {
+		if (depth == 0) {
+			return 0;
+		}
+		return (stdDevIntEnt[depth] == 0) ? 0 : (internalEntropy(node) - meanIntEnt[depth]) / stdDevIntEnt[depth];
+	}
+
+	public double getStdEntropy(int node, int depth) {
+		if (depth == 0) {
+			return 0;
+		}
+		return (stdDevEnt[depth] == 0) ? 0 : (entropy[node] - meanEnt[depth]) / stdDevEnt[depth];
+	}
+
+	// NGramIndex
+
+	public double getFreq(List<String> sequence) {
+		int node = find(sequence);
+		return (node == NONE) ? 0 : count[node];
+	}
+
+	public double getEntropy(List<String> sequence) {
+		int node = find(sequence);
+		return (node == NONE) ? 0 : entropy[node];
+	}
+
+	public double getStdEntropy(List<String> sequence) {
+		int node = find(sequence);
+		return (node == NONE) ? 0 : getStdEntropy(node, depthOf(sequence));
+	}
+
+	public double getStdIntEntropy(List<String> sequence) {
+		int node = find(sequence);
+		return (node == NONE) ? Double.POSITIVE_INFINITY : getStdIntEntropy(node, depthOf(sequence));
+	}
+
+	public int getNumChildren(List<String> sequence) {
+		int node = find(sequence);
+		return (node == NONE) ? 0 : numChildren[node];
+	}
+
+	public TrieCursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * Cursor over node ids, the node is NONE once the cursor has walked
+	 * off the trie.
+	 */
+	public class Cursor implements TrieCursor {
+		int node = ROOT;
+		int depth = 0;
+
+		public void reset() {
+			node = ROOT;
+			depth = 0;
+		}
+
+		public void set(TrieCursor other) {
+			Cursor c = (Cursor) other;
+			node = c.node;
+			depth = c.depth;
+		}
+
+		public boolean advance(String s) {
+			if (node != NONE) {
+				int sym = symbols.lookup(s);
+				node = (sym == SymbolTable.NONE) ? NONE : getChild(node, sym);
+			}
+			depth++;
+			return node != NONE;
+		}
+
+		/** Extends the current sequence by a symbol id of this trie's SymbolTable */
+		public boolean advance(int sym) {
+			if (node != NONE) {
+				node = getChild(node, sym);
+			}
+			depth++;
+			return node != NONE;
+		}
+
+		public int getNode() {
+			return node;
+		}
+
+		public boolean isValid() {
+			return node != NONE;
+		}
+
+		public int depth() {
+			return depth;
+		}
+
+		public double freq() {
+			return (node == NONE) ? 0 : count[node];
+		}
+
+		public double entropy() {
+			return (node == NONE) ? 0 : entropy[node];
+		}
+
+		public double stdEntropy() {
+			return (node == NONE) ? 0 : getStdEntropy(node, depth);
+		}
+
+		public double stdIntEntropy() {
+			return (node == NONE) ? Double.POSITIVE_INFINITY : getStdIntEntropy(node, depth);
+		}
+
+		public int numChildren() {
+			return (node == NONE) ? 0 : numChildren[node];
+		}
+	}
+
+	private static int depthOf(List<String> sequence) {
+		return (sequence == null) ? 0 : sequence.size();
+	}
+
+	// STATIC METHODS
+
+	/** Built from the token ids of the corpus, sharing its SymbolTable */
+	public static IntTrie buildTrie(Corpus c, int depth) {
+		return buildTrie(c.getSymbols(), c.getTokens(), depth);
+	}
+
+	public static IntTrie buildTrie(SymbolTable symbols, int[] tokens, int depth) {
+		IntTrie root = new IntTrie(symbols);
+		root.addAll(tokens, depth);
+		root.generateStatistics();
+		return root;
+	}
+
+	public static IntTrie buildTrie(List<String> tokens, int depth) {
+		IntTrie root = new IntTrie();
+		root.addAll(tokens, depth);
+		root.generateStatistics();
+		return root;
+	}
+
+	public static IntTrie buildBackwardTrie(Corpus c, int depth) {
+		return buildTrie(c.getSymbols(), c.getReversedTokens(), depth);
+	}
+
+	public static IntTrie buildBackwardTrie(List<String> tokens, int depth) {
+		return buildTrie(ReversedList.of(tokens), depth);
+	}
+}
@@ -0,0 +1,427 @@
+package edu.arizona.ve.trie;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.arizona.ve.corpus.Corpus;
+import edu.arizona.ve.corpus.SymbolTable;
+
+/**
+ * A sparse stand-in for the knowledge trie of Corpus.makeKnowledgeTrie.
+ * The knowledge expert only asks about sequences that end with the
+ * boundary marker (seg1 + "*") or start with it ("*" + seg2), so only
+ * those n-grams are stored, together with the per-depth statistics of the
+ * full knowledge trie that are needed to standardize their surprisal.
+ *
+ * Between two bootstrap iterations update() moves the index to a new set
+ * of cut points: the stored n-grams of the boundaries near a changed cut
+ * are taken out and put back, and the counts of all n-grams of the
+ * knowledge corpus (kept in an IntTrie) are adjusted around each changed
+ * cut as KnowledgeTrieUpdater does, so the statistics are recomputed from
+ * the FrequencyCounts without going over the corpus.
+ *
+ * Any other sequence is reported as missing. Only getFreq, getStdIntEntropy
+ * and the cursor are meaningful; there is no boundary entropy.
+ */
+public class KnowledgeIndex implements NGramIndex, IncrementalKnowledge {
+
+	int depth;
+	double totalFreq;
+
+	List<String> tokens;
+	boolean[] cuts;
+	int lastChanges;
+
+	// token ids, with the boundary symbol as boundaryId
+	SymbolTable symbols;
+	int[] ids;
+	int boundaryId;
+
+	// seg1 + "*" and "*" + seg2 n-grams, plus the prefixes leading to them
+	Trie trie;
+
+	// counts of all n-grams of the knowledge corpus, and how many of each
+	// length have each count
+	IntTrie counts;
+	FrequencyCounts frequencies;
+
+	// surprisal statistics of all n-grams of the knowledge corpus, per length
+	double[] meanIntEnt;
+	double[] stdDevIntEnt;
+
+	/**
+	 * @param tokens the corpus
+	 * @param cuts cuts[i] is true if there is a boundary after tokens[i]
+	 * @param depth the depth of the knowledge trie this replaces
+	 */
+	public KnowledgeIndex(List<String> tokens, boolean[] cuts, int depth) {
+		this.depth = depth;
+		this.tokens = tokens;
+		this.cuts = cuts.clone();
+
+		symbols = new SymbolTable();
+		boundaryId = symbols.intern(Corpus.BOUNDARY);
+		ids = symbols.encode(tokens);
+
+		counts = new IntTrie(symbols);
+		rebuild();
+	}
+
+	/**
+	 * counts the n-grams and stores the ones of every boundary
+	 */
+	private void rebuild() {
+		int[] knowledge = encode();
+		totalFreq = knowledge.length;
+
+		counts.clearCounts();
+		counts.addAll(knowledge, depth);
+		frequencies = new FrequencyCounts(depth);
+		countFrequencies();
+		computeStatistics();
+
+		buildTrie();
+	}
+
+	/**
+	 * stores the n-grams of every boundary
+	 */
+	private void buildTrie() {
+		trie = new Trie();
+		for (int p = 0; p < cuts.length; p++) {
+			if (cuts[p])
+				addBoundary(p, 1);
+		}
+		trie.freq = totalFreq;
+	}
+
+	public int getLastChanges() {
+		return lastChanges;
+	}
+
+	/**
+	 * Brings the index up to date with newCuts. Each changed cut costs
+	 * a few depth^2 steps, so when more than one cut in 4 * depth changed
+	 * the index is rebuilt instead (reusing the nodes of the counts).
+	 * @return this index
+	 */
+	public KnowledgeIndex update(boolean[] newCuts) {
+		if (newCuts.length != cuts.length) {
+			throw new RuntimeException("Cut point length mismatch: " + newCuts.length + " != " + cuts.length);
+		}
+
+		int[] changes = new int[16];
+		lastChanges = 0;
+		for (int p = 0; p < cuts.length; p++) {
+			if (cuts[p] != newCuts[p]) {
+				if (lastChanges == changes.length)
+					changes = Arrays.copyOf(changes, 2 * lastChanges);
+				changes[lastChanges++] = p;
+			}
+		}
+		if (lastChanges == 0)
+			return this;
+
+		if (lastChanges * 4 * depth > tokens.size()) {
+			cuts = newCuts.clone();
+			rebuild();
+			return this;
+		}
+
+		// the boundaries whose stored n-grams can reach a changed cut
+		int[] affected = new int[16];
+		int numAffected = 0;
+		int next = 0;
+		for (int k = 0; k < lastChanges; k++) {
+			int p = changes[k];
+			for (int b = Math.max(next, p - depth); b <= p + depth && b < cuts.length; b++) {
+				if (numAffected == affected.length)
+					affected = Arrays.copyOf(affected, 2 * numAffected);
+				affected[numAffected++] = b;
+				next = b + 1;
+			}
+		}
+
+		for (int k = 0; k < numAffected; k++) {
+			if (cuts[affected[k]])
+				addBoundary(affected[k], -1);
+		}
+
+		for (int k = 0; k < lastChanges; k++)
+			toggle(changes[k]);
+
+		for (int k = 0; k < numAffected; k++) {
+			if (cuts[affected[k]])
+				addBoundary(affected[k], 1);
+		}
+
+		trie.freq = totalFreq;
+		computeStatistics();
+		return this;
+	}
+
+	/**
+	 * the corpus with a boundary symbol after every cut, as ids
+	 */
+	private int[] encode() {
+		int size = ids.length;
+		for (int i = 0; i < cuts.length; i++) {
+			if (cuts[i])
+				size++;
+		}
+
+		int[] result = new int[size];
+		int k = 0;
+		for (int i = 0; i < ids.length; i++) {
+			result[k++] = ids[i];
+			if (i < cuts.length && cuts[i])
+				result[k++] = boundaryId;
+		}
+		return result;
+	}
+
+	/**
+	 * adds (or with count -1 takes out) the stored n-grams of the boundary
+	 * after token p: seg1 + "*" for every seg1 between the previous
+	 * boundary and this one, and "*" + seg2 up to the next boundary
+	 */
+	private void addBoundary(int p, int count) {
+		ArrayList<String> local = new ArrayList<String>(depth);
+		int first = p;
+		while (first > 0 && first > p - depth + 2 && !cuts[first - 1])
+			first--;
+		for (int q = first; q <= p; q++)
+			local.add(tokens.get(q));
+		local.add(Corpus.BOUNDARY);
+		for (int s = 0; s < local.size() - 1; s++)
+			put(local, s, local.size(), count);
+
+		local.clear();
+		local.add(Corpus.BOUNDARY);
+		for (int q = p + 1; q < tokens.size() && local.size() < depth; q++) {
+			local.add(tokens.get(q));
+			if (q < cuts.length && cuts[q])
+				break;
+		}
+		put(local, 0, local.size(), count);
+	}
+
+	/**
+	 * Trie.put, but nodes whose count drops to 0 are removed (their
+	 * subtrees only hold sequences that went with them)
+	 */
+	private void put(List<String> sequence, int start, int end, int count) {
+		if (count > 0) {
+			trie.put(sequence, start, end, count);
+			return;
+		}
+
+		Trie node = trie;
+		for (int i = start; i < end; i++) {
+			Trie child = node.children.get(sequence.get(i));
+			child.freq += count;
+			if (child.freq == 0) {
+				node.children.remove(child.symbol);
+				return;
+			}
+			node = child;
+		}
+	}
+
+	/**
+	 * adds or removes the boundary after token p, adjusting the counts of
+	 * the n-grams of the knowledge corpus that cross it
+	 */
+	private void toggle(int p) {
+		adjust(p, -1);
+		cuts[p] = !cuts[p];
+		adjust(p, 1);
+		totalFreq += cuts[p] ? 1 : -1;
+	}
+
+	/**
+	 * adds count to every n-gram of the knowledge corpus (up to depth) that
+	 * crosses the boundary after token p, as KnowledgeTrieUpdater.adjust
+	 */
+	private void adjust(int p, int count) {
+		// depth symbols of the knowledge corpus on each side of the boundary
+		int[] local = new int[2 * depth + 3];
+		int size = 0;
+		for (int q = p; q >= 0 && size < depth; q--) {
+			local[size++] = ids[q];
+			if (q > 0 && cuts[q-1] && size < depth)
+				local[size++] = boundaryId;
+		}
+		for (int i = 0, j = size - 1; i < j; i++, j--) {
+			int tmp = local[i]; local[i] = local[j]; local[j] = tmp;
+		}
+
+		int last = size - 1; // token p
+		if (cuts[p])
+			local[size++] = boundaryId;
+		int next = size; // token p+1
+
+		for (int q = p + 1; q < ids.length && size < next + depth; q++) {
+			local[size++] = ids[q];
+			if (q < cuts.length && cuts[q])
+				local[size++] = boundaryId;
+		}
+
+		for (int s = 0; s < next; s++) {
+			int node = IntTrie.ROOT;
+			int end = Math.min(s + depth, size);
+			for (int k = s; k < end; k++) {
+				node = counts.getOrAddChild(node, local[k]);
+				if (k > last) {
+					int length = k - s + 1;
+					frequencies.add(length, counts.getCount(node), -1);
+					counts.addCount(node, count);
+					frequencies.add(length, counts.getCount(node), 1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * counts the frequencies of the n-grams in counts, level by level
+	 */
+	private void countFrequencies() {
+		int[] level = { IntTrie.ROOT };
+		int levelSize = 1;
+		for (int length = 1; length <= depth && levelSize > 0; length++) {
+			int[] next = new int[16];
+			int nextSize = 0;
+			for (int i = 0; i < levelSize; i++) {
+				for (int c = counts.getFirstChild(level[i]); c != IntTrie.NONE; c = counts.getNextSibling(c)) {
+					frequencies.add(length, counts.getCount(c), 1);
+					if (nextSize == next.length)
+						next = Arrays.copyOf(next, 2 * nextSize);
+					next[nextSize++] = c;
+				}
+			}
+			level = next;
+			levelSize = nextSize;
+		}
+	}
+
+	/**
+	 * Finds the mean and standard deviation of the surprisal of the distinct
+	 * n-grams of every length up to depth, as the full knowledge trie would.
+	 */
+	private void computeStatistics() {
+		meanIntEnt = new double[depth + 1];
+		stdDevIntEnt = new double[depth + 1];
+		for (int len = 1; len <= depth; len++) {
+			StatNode stat = frequencies.statistics(len, totalFreq);
+			meanIntEnt[len] = stat.meanIntEnt;
+			stdDevIntEnt[len] = stat.stdDevIntEnt;
+		}
+	}
+
+	/**
+	 * true for the sequences this index stores
+	 */
+	private static boolean isAnchored(List<String> sequence) {
+		return !sequence.isEmpty() &&
+				(sequence.get(0).equals(Corpus.BOUNDARY) || sequence.get(sequence.size()-1).equals(Corpus.BOUNDARY));
+	}
+
+	private double standardize(Trie node, int length) {
+		double intEnt = -Math.log(node.freq / totalFreq);
+		return (stdDevIntEnt[length] == 0) ? 0 : (intEnt - meanIntEnt[length]) / stdDevIntEnt[length];
+	}
+
+	public double getFreq(List<String> sequence) {
+		if (!isAnchored(sequence))
+			return 0;
+		return trie.getFreq(sequence);
+	}
+
+	public double getEntropy(List<String> sequence) {
+		return 0;
+	}
+
+	public double getStdEntropy(List<String> sequence) {
+		return 0;
+	}
+
+	public double getStdIntEntropy(List<String> sequence) {
+		TrieCursor c = cursor();
+		for (String symbol : sequence)
+			c.advance(symbol);
+		return c.stdIntEntropy();
+	}
+
+	public int getNumChildren(List<String> sequence) {
+		return 0;
+	}
+
+	public TrieCursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * Walks the stored trie, but only reports the nodes of sequences that
+	 * start or end with the boundary.
+	 */
+	public class Cursor implements TrieCursor {
+		Trie node = trie;
+		int depth;
+		boolean startsWithBoundary;
+		boolean endsWithBoundary;
+
+		public void reset() {
+			node = trie;
+			depth = 0;
+			startsWithBoundary = false;
+			endsWithBoundary = false;
+		}
+
+		public void set(TrieCursor other) {
+			Cursor c = (Cursor) other;
+			node = c.node;
+			depth = c.depth;
+			startsWithBoundary = c.startsWithBoundary;
+			endsWithBoundary = c.endsWithBoundary;
+		}
+
+		public boolean advance(String symbol) {
+			depth++;
+			endsWithBoundary = symbol.equals(Corpus.BOUNDARY);
+			if (depth == 1)
+				startsWithBoundary = endsWithBoundary;
+			if (node != null)
+				node = node.children.get(symbol);
+			return isValid();
+		}
+
+		public boolean isValid() {
+			return node != null && (startsWithBoundary || endsWithBoundary);
+		}
+
+		public int depth() {
+			return depth;
+		}
+
+		public double freq() {
+			return isValid() ? node.freq : 0;
+		}
+
+		public double entropy() {
+			return 0;
+		}
+
+		public double stdEntropy() {
+			return 0;
+		}
+
+		public double stdIntEntropy() {
+			return isValid() ? standardize(node, depth) : Double.POSITIVE_INFINITY;
+		}
+
+		public int numChildren() {
+			return 0;
+		}
+	}
+}
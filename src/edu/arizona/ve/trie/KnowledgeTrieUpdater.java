@@ -0,0 +1,269 @@
+package edu.arizona.ve.trie;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import edu.arizona.ve.corpus.Corpus;
+
+/**
+ * Keeps a knowledge trie (see Corpus.makeKnowledgeTrie) in step with a
+ * changing set of cut points. Between two bootstrap iterations only a few
+ * cuts change, so instead of copying the corpus and rebuilding the trie,
+ * update() removes the n-grams that cross each changed boundary and adds
+ * the ones that cross it afterwards.
+ *
+ * The knowledge expert only reads the standardized internal entropy,
+ * which doesn't depend on the total count (log N cancels between a node
+ * and the mean of its length), only on the frequencies of the n-grams of
+ * each length. So the number of n-grams of every length with each
+ * frequency is kept up to date along with the counts, the statistics of
+ * the lengths that changed are recomputed from those, and the index
+ * returned by update() standardizes a node when it is looked up. Nothing
+ * outside the changed n-grams is visited.
+ *
+ * Small changes are made to the trie in place, so anyone holding it sees
+ * the new counts (its own standardized values are not updated).
+ */
+public class KnowledgeTrieUpdater implements IncrementalKnowledge {
+
+	Corpus corpus;
+	List<String> tokens;
+	int depth;
+	boolean[] cuts;
+
+	Trie trie;
+	int lastChanges;
+
+	// the number of n-grams of each length with a given frequency
+	FrequencyCounts frequencies;
+	boolean[] changed;
+
+	// surprisal statistics per length, without the log N term
+	double[] meanLogFreq;
+	double[] stdDevLogFreq;
+
+	Index index = new Index();
+
+	public KnowledgeTrieUpdater(Corpus c, int depth, boolean[] cuts) {
+		this.corpus = c;
+		this.tokens = c.getCleanChars();
+		this.depth = depth;
+		this.cuts = cuts.clone();
+
+		rebuild();
+	}
+
+	public Trie getTrie() {
+		return trie;
+	}
+
+	/** The number of cut points that changed in the last call to update */
+	public int getLastChanges() {
+		return lastChanges;
+	}
+
+	/**
+	 * Brings the trie up to date with newCuts and restandardizes the
+	 * lengths whose counts changed. Each changed cut costs about 2*depth^2
+	 * node visits, so when too many cuts changed the trie is rebuilt
+	 * instead.
+	 * @return the knowledge for newCuts; only getFreq, getStdIntEntropy,
+	 * getNumChildren and the cursor are meaningful, as in KnowledgeIndex
+	 */
+	public NGramIndex update(boolean[] newCuts) {
+		if (newCuts.length != cuts.length) {
+			throw new RuntimeException("Cut point length mismatch: " + newCuts.length + " != " + cuts.length);
+		}
+
+		lastChanges = 0;
+		for (int p = 0; p < cuts.length; p++) {
+			if (cuts[p] != newCuts[p]) 
+				lastChanges++;
+		}
+		
+		if (lastChanges * 2 * depth > tokens.size()) {
+			cuts = newCuts.clone();
+			rebuild();
+			return index;
+		}
+		
+		for (int p = 0; p < cuts.length; p++) {
+			if (cuts[p] != newCuts[p]) 
+				toggle(p);
+		}
+
+		for (int length = 1; length <= depth; length++) {
+			if (changed[length])
+				standardize(length);
+		}
+
+		return index;
+	}
+
+	/**
+	 * builds the trie for cuts and counts its frequencies
+	 */
+	private void rebuild() {
+		trie = corpus.makeKnowledgeTrie(depth, cuts);
+
+		changed = new boolean[depth + 1];
+		frequencies = new FrequencyCounts(depth);
+		for (Trie child : trie.children.values()) {
+			child.walk(new TrieVisitor() {
+				public boolean visit(Trie node, int length) {
+					count(length + 1, node.freq, 1);
+					return true;
+				}
+			});
+		}
+
+		meanLogFreq = new double[depth + 1];
+		stdDevLogFreq = new double[depth + 1];
+		for (int length = 1; length <= depth; length++)
+			standardize(length);
+	}
+
+	/**
+	 * adds count n-grams of the given length and frequency
+	 */
+	private void count(int length, double freq, int count) {
+		if (freq <= 0 || length > depth)
+			return;
+
+		frequencies.add(length, (int) freq, count);
+		changed[length] = true;
+	}
+
+	/**
+	 * recomputes the statistics of one length from its frequencies
+	 */
+	private void standardize(int length) {
+		StatNode stat = frequencies.statistics(length, 1);
+
+		meanLogFreq[length] = stat.meanIntEnt;
+		stdDevLogFreq[length] = stat.stdDevIntEnt;
+		changed[length] = false;
+	}
+
+	/**
+	 * adds or removes the boundary after token p
+	 */
+	protected void toggle(int p) {
+		adjust(p, -1);
+		cuts[p] = !cuts[p];
+		adjust(p, 1);
+
+		// the root counts every position of the knowledge corpus
+		trie.freq += cuts[p] ? 1 : -1;
+	}
+
+	/**
+	 * adds count to every n-gram of the knowledge corpus (up to depth) that
+	 * crosses the boundary after token p: the ones that contain the "*"
+	 * if there is one, or both token p and token p+1 if there is not.
+	 */
+	protected void adjust(int p, double count) {
+		// depth symbols of the knowledge corpus on each side of the boundary
+		ArrayList<String> local = new ArrayList<String>(3 * depth);
+		for (int q = p; q >= 0 && local.size() < depth; q--) {
+			local.add(tokens.get(q));
+			if (q > 0 && cuts[q-1] && local.size() < depth) {
+				local.add(Corpus.BOUNDARY);
+			}
+		}
+		Collections.reverse(local);
+
+		int last = local.size() - 1; // token p
+		if (cuts[p]) {
+			local.add(Corpus.BOUNDARY);
+		}
+		int next = local.size(); // token p+1
+
+		for (int q = p + 1; q < tokens.size() && local.size() < next + depth; q++) {
+			local.add(tokens.get(q));
+			if (q < cuts.length && cuts[q]) {
+				local.add(Corpus.BOUNDARY);
+			}
+		}
+
+		for (int s = 0; s < next; s++) {
+			Trie node = trie;
+			int end = Math.min(s + depth, local.size());
+			for (int k = s; k < end; k++) {
+				String symbol = local.get(k);
+				Trie child = node.children.get(symbol);
+				if (child == null) {
+					child = new Trie();
+					child.parent = node;
+					child.symbol = symbol;
+					node.children.put(symbol, child);
+				}
+				node = child;
+
+				if (k > last) {
+					count(k - s + 1, node.freq, -1);
+					node.freq += count;
+					count(k - s + 1, node.freq, 1);
+					if (node.freq == 0) {
+						node.parent.children.remove(symbol);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The trie, standardizing the surprisal of a node with the current
+	 * statistics of its length when it is looked up.
+	 */
+	class Index implements NGramIndex {
+
+		private double standardize(Trie node, int length) {
+			double logFreq = -Math.log(node.freq);
+			return (stdDevLogFreq[length] == 0) ? 0 : (logFreq - meanLogFreq[length]) / stdDevLogFreq[length];
+		}
+
+		public double getFreq(List<String> sequence) {
+			return trie.getFreq(sequence);
+		}
+
+		public double getEntropy(List<String> sequence) {
+			return 0;
+		}
+
+		public double getStdEntropy(List<String> sequence) {
+			return 0;
+		}
+
+		public double getStdIntEntropy(List<String> sequence) {
+			TrieCursor c = cursor();
+			for (String symbol : sequence)
+				c.advance(symbol);
+			return c.stdIntEntropy();
+		}
+
+		public int getNumChildren(List<String> sequence) {
+			return trie.getNumChildren(sequence);
+		}
+
+		public TrieCursor cursor() {
+			return new Trie.Cursor(trie) {
+				@Override
+				public double entropy() {
+					return 0;
+				}
+
+				@Override
+				public double stdEntropy() {
+					return 0;
+				}
+
+				@Override
+				public double stdIntEntropy() {
+					return (node == null) ? Double.POSITIVE_INFINITY : standardize(node, depth);
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package edu.arizona.ve.trie;
+
+import java.util.List;
+
+/**
+ * The n-gram queries the experts need from a trie. Implemented by the 
+ * original object-per-node {@link Trie} and the compact {@link IntTrie}.
+ * 
+ * Sequences that are not in the index answer with the same defaults as 
+ * Trie: a frequency, entropy and standardized entropy of 0, no children, 
+ * and a standardized internal entropy of positive infinity.
+ */
+public interface NGramIndex {
+
+	public double getFreq(List<String> sequence);
+
+	public double getEntropy(List<String> sequence);
+
+	public double getStdEntropy(List<String> sequence);
+
+	public double getStdIntEntropy(List<String> sequence);
+
+	/** Equivalent to getChildren(sequence).size() on a Trie */
+	public int getNumChildren(List<String> sequence);
+	
+	/** A new cursor positioned at the root */
+	public TrieCursor cursor();
+}
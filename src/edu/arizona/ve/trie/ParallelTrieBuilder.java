@@ -0,0 +1,134 @@
+package edu.arizona.ve.trie;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Builds tries with one fork-join task per child of the root. Every n-gram
+ * starting at position i goes below the root child for tokens[i], so the
+ * positions are first grouped by their first symbol and then each task
+ * inserts its own group into its own subtree; no two tasks touch the same
+ * node. The groups are inserted in corpus order, so the result is the same
+ * trie (including HashMap iteration order) as the sequential Trie.addAll.
+ *
+ * The statistics passes of Trie are split over the root children in the
+ * same way (see Trie.fillStatistics).
+ */
+public class ParallelTrieBuilder {
+
+	/** Number of threads used to build tries and their statistics */
+	public static int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+	/** Tries over fewer tokens than this are built on the calling thread */
+	public static int MIN_PARALLEL_SIZE = 1 << 15;
+
+	// One pool per value of PARALLELISM, as in VotingExperts.getPool
+	private static HashMap<Integer,ForkJoinPool> _pools = new HashMap<Integer,ForkJoinPool>();
+
+	/**
+	 * Adds every n-gram of tokens up to length depth to root, as
+	 * Trie.addAll does.
+	 */
+	public static void addAll(Trie root, final List<String> tokens, final int depth) {
+		root.depth = depth;
+
+		final int size = tokens.size();
+		if (size == 0 || depth <= 0)
+			return;
+
+		// root children in order of first occurrence, as put() would create them
+		ArrayList<Trie> subtries = new ArrayList<Trie>();
+		HashMap<Trie,Integer> index = new HashMap<Trie,Integer>();
+		int[] first = new int[size];
+		for (int i = 0; i < size; ++i) {
+			String symbol = tokens.get(i);
+			Trie child = root.children.get(symbol);
+			if (child == null) {
+				child = new Trie();
+				child.parent = root;
+				child.symbol = symbol;
+				root.children.put(symbol, child);
+			}
+			Integer k = index.get(child);
+			if (k == null) {
+				k = subtries.size();
+				index.put(child, k);
+				subtries.add(child);
+			}
+			first[i] = k;
+		}
+
+		// positions grouped by their first symbol, in corpus order
+		final int[] start = new int[subtries.size() + 1];
+		for (int i = 0; i < size; ++i)
+			start[first[i] + 1]++;
+		for (int k = 1; k < start.length; ++k)
+			start[k] += start[k-1];
+		final int[] positions = new int[size];
+		int[] next = start.clone();
+		for (int i = 0; i < size; ++i)
+			positions[next[first[i]]++] = i;
+
+		List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+		for (int k = 0; k < subtries.size(); ++k) {
+			final Trie child = subtries.get(k);
+			final int from = start[k], to = start[k+1];
+			tasks.add(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					for (int j = from; j < to; ++j) {
+						int i = positions[j];
+						child.put(tokens, i + 1, Math.min(i + depth, size), 1);
+					}
+				}
+			});
+		}
+		run(tasks, size);
+
+		root.freq += size;
+		root.maxDepthSeen = Math.max(root.maxDepthSeen, Math.min(depth, size));
+	}
+
+	/**
+	 * Runs the tasks to completion, in the pool if there is enough work
+	 * (size tokens) to be worth it and on the calling thread otherwise.
+	 */
+	static void run(final List<RecursiveAction> tasks, double size) {
+		if (PARALLELISM <= 1 || size < MIN_PARALLEL_SIZE || tasks.size() <= 1) {
+			for (RecursiveAction task : tasks)
+				task.invoke();
+			return;
+		}
+		
+		// already a task (e.g. one trie of a TriePair), so fork from here
+		if (ForkJoinTask.inForkJoinPool()) {
+			ForkJoinTask.invokeAll(tasks);
+			return;
+		}
+
+		getPool().invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+	}
+
+	/** The pool shared by all trie tasks, with PARALLELISM threads */
+	static synchronized ForkJoinPool getPool() {
+		ForkJoinPool pool = _pools.get(PARALLELISM);
+		if (pool == null) {
+			pool = new ForkJoinPool(PARALLELISM);
+			_pools.put(PARALLELISM, pool);
+		}
+		return pool;
+	}
+}
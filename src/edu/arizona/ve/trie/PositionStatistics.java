@@ -0,0 +1,357 @@
+package edu.arizona.ve.trie;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import edu.arizona.ve.corpus.Corpus;
+import edu.arizona.ve.corpus.SymbolTable;
+
+/**
+ * The trie statistics of every n-gram in a corpus, indexed by corpus
+ * position and length. Sliding windows overlap by all but one token, so
+ * the same n-gram at the same offset would otherwise be looked up once per
+ * window by every expert. This table is filled in one pass over the corpus
+ * and then the experts only read from it.
+ *
+ * Forward values are for the sequence corpus[pos, pos+len). Backward values
+ * are for the reversed sequence corpus[end-len, end), looked up in the
+ * backward trie. Missing sequences get the same defaults as NGramIndex.
+ *
+ * Only the tables asked for are built (see STD_ENTROPY etc.), more can be
+ * added later with ensure, and experts check for theirs with isForward /
+ * isBackward. If all of them together
+ * fit in MAP_THRESHOLD bytes they are kept on the heap, otherwise in
+ * memory-mapped temporary files. The files are deleted as soon as they are
+ * mapped, so their space goes back to the system when the table is no
+ * longer reachable. Both are split into chunks, as a single array or
+ * buffer can't exceed 2GB.
+ */
+public class PositionStatistics {
+
+	/** Tables larger than this (in bytes, all of them together) are memory-mapped */
+	public static long MAP_THRESHOLD = 256L * 1024 * 1024;
+
+	// The tables, as bits of the tables argument
+	public static final int STD_ENTROPY = 1;
+	public static final int STD_INT_ENTROPY = 2;
+	public static final int ENTROPY = 4;
+	public static final int NUM_CHILDREN = 8;
+	public static final int BACKWARD_STD_ENTROPY = 16;
+	public static final int BACKWARD_ENTROPY = 32;
+	public static final int BACKWARD_NUM_CHILDREN = 64;
+	
+	public static final int FORWARD_TABLES = STD_ENTROPY | STD_INT_ENTROPY | ENTROPY | NUM_CHILDREN;
+	public static final int BACKWARD_TABLES = BACKWARD_STD_ENTROPY | BACKWARD_ENTROPY | BACKWARD_NUM_CHILDREN;
+	public static final int ALL_TABLES = FORWARD_TABLES | BACKWARD_TABLES;
+
+	// Entries per chunk of a table
+	static final int CHUNK_BITS = 24;
+	static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+	NGramIndex forward;
+	NGramIndex backward;
+	int tables;
+
+	// the corpus as ids of symbols, kept for ensure
+	SymbolTable symbols;
+	int[] corpus;
+
+	int size;
+	int maxLength;
+	int stride;
+	long entries;
+
+	DoubleBuffer[] stdEntropy;
+	DoubleBuffer[] stdIntEntropy;
+	DoubleBuffer[] entropy;
+	IntBuffer[] numChildren;
+
+	DoubleBuffer[] backwardStdEntropy;
+	DoubleBuffer[] backwardEntropy;
+	IntBuffer[] backwardNumChildren;
+
+	/**
+	 * @param corpus the corpus the tries were built from
+	 * @param forward the forward trie
+	 * @param backward the backward trie, may be null
+	 * @param maxLength the longest n-gram that will be looked up, usually
+	 * the window size
+	 */
+	public PositionStatistics(List<String> corpus, NGramIndex forward, NGramIndex backward, int maxLength) {
+		this(new SymbolTable(), corpus, forward, backward, maxLength, ALL_TABLES);
+	}
+
+	/**
+	 * Reads the token ids of the corpus. Tries that share the corpus
+	 * SymbolTable (IntTrie.buildTrie(Corpus, int)) are walked by id, any
+	 * others by the String of each id.
+	 */
+	public PositionStatistics(Corpus corpus, NGramIndex forward, NGramIndex backward, int maxLength) {
+		this(corpus, forward, backward, maxLength, ALL_TABLES);
+	}
+
+	/**
+	 * Builds only the given tables (STD_ENTROPY | ... ). Backward tables
+	 * are left out when there is no backward trie.
+	 */
+	public PositionStatistics(Corpus corpus, NGramIndex forward, NGramIndex backward, int maxLength, int tables) {
+		this(corpus.getSymbols(), corpus.getTokens(), forward, backward, maxLength, tables);
+	}
+
+	private PositionStatistics(SymbolTable symbols, List<String> corpus, NGramIndex forward, NGramIndex backward, int maxLength, int tables) {
+		this(symbols, symbols.encode(corpus), forward, backward, maxLength, tables);
+	}
+
+	private PositionStatistics(SymbolTable symbols, int[] corpus, NGramIndex forward, NGramIndex backward, int maxLength, int tables) {
+		this.symbols = symbols;
+		this.corpus = corpus;
+		this.forward = forward;
+		this.backward = backward;
+		this.size = corpus.length;
+		this.maxLength = maxLength;
+		this.stride = maxLength + 1;
+		this.entries = (long) (size + 1) * stride;
+		ensure(tables);
+	}
+
+	/**
+	 * Builds the given tables (STD_ENTROPY | ... ) that are not there yet,
+	 * leaving the others as they are. Backward tables are left out when
+	 * there is no backward trie. Not safe while other threads read the
+	 * table.
+	 */
+	public void ensure(int tables) {
+		if (backward == null)
+			tables &= ~BACKWARD_TABLES;
+		int missing = tables & ~this.tables;
+		if (missing == 0)
+			return;
+
+		// the new tables are mapped if all of them together are too big
+		boolean mapped = entries * bytesPerEntry(this.tables | missing) > MAP_THRESHOLD;
+
+		if ((missing & STD_ENTROPY) != 0)
+			stdEntropy = allocateDoubles(mapped);
+		if ((missing & STD_INT_ENTROPY) != 0)
+			stdIntEntropy = allocateDoubles(mapped);
+		if ((missing & ENTROPY) != 0)
+			entropy = allocateDoubles(mapped);
+		if ((missing & NUM_CHILDREN) != 0)
+			numChildren = allocateInts(mapped);
+
+		if ((missing & FORWARD_TABLES) != 0) {
+			TrieCursor cursor = forward.cursor();
+			boolean byId = sharesSymbols(forward, symbols);
+			for (int pos = 0; pos < size; ++pos) {
+				cursor.reset();
+				long base = (long) pos * stride;
+				fillForward(missing, base, cursor);
+				for (int len = 1; len <= maxLength && pos + len <= size; ++len) {
+					advance(cursor, byId, symbols, corpus[pos + len - 1]);
+					fillForward(missing, base + len, cursor);
+				}
+			}
+		}
+
+		if ((missing & BACKWARD_STD_ENTROPY) != 0)
+			backwardStdEntropy = allocateDoubles(mapped);
+		if ((missing & BACKWARD_ENTROPY) != 0)
+			backwardEntropy = allocateDoubles(mapped);
+		if ((missing & BACKWARD_NUM_CHILDREN) != 0)
+			backwardNumChildren = allocateInts(mapped);
+
+		if ((missing & BACKWARD_TABLES) != 0) {
+			TrieCursor cursor = backward.cursor();
+			boolean byId = sharesSymbols(backward, symbols);
+			for (int end = 0; end <= size; ++end) {
+				cursor.reset();
+				long base = (long) end * stride;
+				fillBackward(missing, base, cursor);
+				for (int len = 1; len <= maxLength && end - len >= 0; ++len) {
+					advance(cursor, byId, symbols, corpus[end - len]);
+					fillBackward(missing, base + len, cursor);
+				}
+			}
+		}
+
+		this.tables |= missing;
+	}
+
+	/** Bytes a position (pos, len) takes in the given tables */
+	static int bytesPerEntry(int tables) {
+		int doubles = STD_ENTROPY | STD_INT_ENTROPY | ENTROPY | BACKWARD_STD_ENTROPY | BACKWARD_ENTROPY;
+		int ints = NUM_CHILDREN | BACKWARD_NUM_CHILDREN;
+		return 8 * Integer.bitCount(tables & doubles) + 4 * Integer.bitCount(tables & ints);
+	}
+
+	private static boolean sharesSymbols(NGramIndex index, SymbolTable symbols) {
+		return index instanceof IntTrie && ((IntTrie) index).getSymbolTable() == symbols;
+	}
+
+	private static void advance(TrieCursor cursor, boolean byId, SymbolTable symbols, int id) {
+		if (byId) 
+			((IntTrie.Cursor) cursor).advance(id);
+		else
+			cursor.advance(symbols.get(id));
+	}
+
+	private void fillForward(int tables, long index, TrieCursor cursor) {
+		int chunk = (int) (index >>> CHUNK_BITS), i = (int) (index & CHUNK_MASK);
+		if ((tables & STD_ENTROPY) != 0)
+			stdEntropy[chunk].put(i, cursor.stdEntropy());
+		if ((tables & STD_INT_ENTROPY) != 0)
+			stdIntEntropy[chunk].put(i, cursor.stdIntEntropy());
+		if ((tables & ENTROPY) != 0)
+			entropy[chunk].put(i, cursor.entropy());
+		if ((tables & NUM_CHILDREN) != 0)
+			numChildren[chunk].put(i, cursor.numChildren());
+	}
+
+	private void fillBackward(int tables, long index, TrieCursor cursor) {
+		int chunk = (int) (index >>> CHUNK_BITS), i = (int) (index & CHUNK_MASK);
+		if ((tables & BACKWARD_STD_ENTROPY) != 0)
+			backwardStdEntropy[chunk].put(i, cursor.stdEntropy());
+		if ((tables & BACKWARD_ENTROPY) != 0)
+			backwardEntropy[chunk].put(i, cursor.entropy());
+		if ((tables & BACKWARD_NUM_CHILDREN) != 0)
+			backwardNumChildren[chunk].put(i, cursor.numChildren());
+	}
+
+	private static int numChunks(long entries) {
+		return (int) ((entries + CHUNK_MASK) >>> CHUNK_BITS);
+	}
+
+	private static int chunkEntries(long entries, int k) {
+		return (int) Math.min(entries - ((long) k << CHUNK_BITS), 1L << CHUNK_BITS);
+	}
+
+	private DoubleBuffer[] allocateDoubles(boolean mapped) {
+		DoubleBuffer[] chunks = new DoubleBuffer[numChunks(entries)];
+		ByteBuffer[] mappedChunks = mapped ? map(entries, 8) : null;
+		for (int k = 0; k < chunks.length; k++) {
+			if (mapped)
+				chunks[k] = mappedChunks[k].asDoubleBuffer();
+			else
+				chunks[k] = DoubleBuffer.wrap(new double[chunkEntries(entries, k)]);
+		}
+		return chunks;
+	}
+
+	private IntBuffer[] allocateInts(boolean mapped) {
+		IntBuffer[] chunks = new IntBuffer[numChunks(entries)];
+		ByteBuffer[] mappedChunks = mapped ? map(entries, 4) : null;
+		for (int k = 0; k < chunks.length; k++) {
+			if (mapped)
+				chunks[k] = mappedChunks[k].asIntBuffer();
+			else
+				chunks[k] = IntBuffer.wrap(new int[chunkEntries(entries, k)]);
+		}
+		return chunks;
+	}
+
+	/**
+	 * A temporary file of entries values of entryBytes each, mapped a
+	 * chunk at a time. The file is deleted once it is mapped (or at exit
+	 * where a mapped file can't be deleted).
+	 */
+	private static ByteBuffer[] map(long entries, int entryBytes) {
+		try {
+			File file = File.createTempFile("ve-stats", ".bin");
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				FileChannel channel = raf.getChannel();
+				ByteBuffer[] chunks = new ByteBuffer[numChunks(entries)];
+				for (int k = 0; k < chunks.length; k++) {
+					long offset = ((long) k << CHUNK_BITS) * entryBytes;
+					// the mappings stay valid after the channel is closed
+					chunks[k] = channel.map(FileChannel.MapMode.READ_WRITE, offset, (long) chunkEntries(entries, k) * entryBytes)
+							.order(ByteOrder.nativeOrder());
+				}
+				return chunks;
+			} finally {
+				raf.close();
+				if (!file.delete())
+					file.deleteOnExit();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/** True if the table holds the given tables (STD_ENTROPY | ...) */
+	public boolean has(int tables) {
+		return (this.tables & tables) == tables;
+	}
+
+	/**
+	 * True if the forward values were read from the given trie and the
+	 * given forward tables were built
+	 */
+	public boolean isForward(NGramIndex trie, int tables) {
+		return trie == forward && has(tables);
+	}
+
+	/**
+	 * True if the backward values were read from the given trie and the
+	 * given backward tables were built
+	 */
+	public boolean isBackward(NGramIndex trie, int tables) {
+		return backward != null && trie == backward && has(tables);
+	}
+
+	/** The tables that were built */
+	public int getTables() {
+		return tables;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getMaxLength() {
+		return maxLength;
+	}
+
+	private int chunk(int pos, int len) {
+		return (int) (((long) pos * stride + len) >>> CHUNK_BITS);
+	}
+
+	private int index(int pos, int len) {
+		return (int) (((long) pos * stride + len) & CHUNK_MASK);
+	}
+
+	public double getStdEntropy(int pos, int len) {
+		return stdEntropy[chunk(pos, len)].get(index(pos, len));
+	}
+
+	public double getStdIntEntropy(int pos, int len) {
+		return stdIntEntropy[chunk(pos, len)].get(index(pos, len));
+	}
+
+	public double getEntropy(int pos, int len) {
+		return entropy[chunk(pos, len)].get(index(pos, len));
+	}
+
+	public int getNumChildren(int pos, int len) {
+		return numChildren[chunk(pos, len)].get(index(pos, len));
+	}
+
+	public double getBackwardStdEntropy(int end, int len) {
+		return backwardStdEntropy[chunk(end, len)].get(index(end, len));
+	}
+
+	public double getBackwardEntropy(int end, int len) {
+		return backwardEntropy[chunk(end, len)].get(index(end, len));
+	}
+
+	public int getBackwardNumChildren(int end, int len) {
+		return backwardNumChildren[chunk(end, len)].get(index(end, len));
+	}
+}
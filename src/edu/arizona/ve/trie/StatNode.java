@@ -5,8 +5,6 @@
  */
 package edu.arizona.ve.trie;
 
-import java.util.ArrayList;
-
 import edu.arizona.ve.util.NF;
 import edu.arizona.ve.util.Printer;
 
@@ -16,12 +14,6 @@ import edu.arizona.ve.util.Printer;
  */
 public class StatNode {
    
-	// trying to phase this out
-   public ArrayList<Double> frequencies;
-   public ArrayList<Double> internalEntropies;
-   
-   public ArrayList<Double> boundaryEntropies;
-   
    public double n;
 
    public double meanFreq;
@@ -35,54 +27,91 @@ public class StatNode {
    public double meanEnt;
    public double varEnt;
    public double stdDevEnt;
+   
+   // running sums of squared differences from the mean (Welford)
+   private double m2Freq;
+   private double m2IntEnt;
+   private double m2Ent;
 
    /** Creates a new instance of StatNode */
    public StatNode() {
-      frequencies = new ArrayList<Double>();
-      boundaryEntropies = new ArrayList<Double>();
-      internalEntropies = new ArrayList<Double>();
    }
    
-   public void calculate() {
-      n = frequencies.size();
-      findMean();
-      findVar();
+   /**
+    * adds one node to the running means, so nothing has to be 
+    * buffered until calculate() is called
+    */
+   public void add(double freq, double intEnt, double ent) {
+      n++;
+      
+      double delta = freq - meanFreq;
+      meanFreq += delta / n;
+      m2Freq += delta * (freq - meanFreq);
+      
+      delta = intEnt - meanIntEnt;
+      meanIntEnt += delta / n;
+      m2IntEnt += delta * (intEnt - meanIntEnt);
+      
+      delta = ent - meanEnt;
+      meanEnt += delta / n;
+      m2Ent += delta * (ent - meanEnt);
    }
    
-   protected void findMean() {
-      meanFreq = 0;
-      meanEnt = 0;
-      meanIntEnt = 0;
+   /**
+    * adds count nodes with the same values
+    */
+   public void add(double freq, double intEnt, double ent, double count) {
+      n += count;
       
-      for (int i = 0; i < n; ++i) {
-         meanFreq += ((Double) frequencies.get(i)).doubleValue();
-         meanIntEnt += internalEntropies.get(i).doubleValue();
-         meanEnt += ((Double) boundaryEntropies.get(i)).doubleValue();
-      }
+      double delta = freq - meanFreq;
+      meanFreq += delta * count / n;
+      m2Freq += count * delta * (freq - meanFreq);
       
-      meanIntEnt /= n;
-      meanFreq /= n;
-      meanEnt /= n;
+      delta = intEnt - meanIntEnt;
+      meanIntEnt += delta * count / n;
+      m2IntEnt += count * delta * (intEnt - meanIntEnt);
+      
+      delta = ent - meanEnt;
+      meanEnt += delta * count / n;
+      m2Ent += count * delta * (ent - meanEnt);
    }
    
-   protected void findVar() {
-      varFreq = 0;
-      varEnt = 0;
-      varIntEnt = 0;
-      
-      for (int i = 0; i < n; ++i) {
-         double freq = ((Double) frequencies.get(i)).doubleValue();
-         varFreq += (freq - meanFreq)*(freq - meanFreq);
-         
-         double intEnt = internalEntropies.get(i).doubleValue();
-         varIntEnt += Math.pow(intEnt - meanIntEnt, 2);
-         
-         double ent  = ((Double) boundaryEntropies.get(i)).doubleValue();
-         varEnt += (ent - meanEnt)*(ent - meanEnt);
+   /**
+    * adds the nodes counted by other, as if they had been added
+    * to this one after its own (Chan et al.)
+    */
+   public void merge(StatNode other) {
+      if (other.n == 0) {
+         return;
       }
-      varFreq /= n;
-      varIntEnt /= n;
-      varEnt /= n;
+
+      double n = this.n + other.n;
+      double weight = other.n / n;
+      double cross = this.n * other.n / n;
+
+      double delta = other.meanFreq - meanFreq;
+      meanFreq += delta * weight;
+      m2Freq += other.m2Freq + delta * delta * cross;
+
+      delta = other.meanIntEnt - meanIntEnt;
+      meanIntEnt += delta * weight;
+      m2IntEnt += other.m2IntEnt + delta * delta * cross;
+
+      delta = other.meanEnt - meanEnt;
+      meanEnt += delta * weight;
+      m2Ent += other.m2Ent + delta * delta * cross;
+
+      this.n = n;
+   }
+
+   public void calculate() {
+      if (n == 0) {
+         return;
+      }
+      
+      varFreq = m2Freq / n;
+      varIntEnt = m2IntEnt / n;
+      varEnt = m2Ent / n;
       
       stdDevFreq = Math.sqrt(varFreq);
       stdDevIntEnt = Math.sqrt(varIntEnt);
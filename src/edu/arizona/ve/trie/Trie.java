@@ -12,6 +12,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.RecursiveAction;
 
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -23,19 +24,21 @@ import org.xml.sax.helpers.DefaultHandler;
 import edu.arizona.ve.corpus.Corpus;
 import edu.arizona.ve.util.NF;
 import edu.arizona.ve.util.Printer;
+import edu.arizona.ve.util.ReversedList;
 import edu.arizona.ve.util.Utils;
 /**
  *
  * @author  Wesley Kerr, Daniel Hewlett
  */
-public class Trie {
+public class Trie implements NGramIndex {
 	
 	// Special members for root node
 	public int maxDepthSeen = 0;
-	private HashMap<Integer,StatNode> statistics = null; 
+	private StatNode[] statistics = null; 
 	
 	// All nodes have these members
-	public List<String> prefix;
+	public Trie parent;
+	public String symbol;
 	public HashMap<String,Trie> children;
 	
 	public double  freq;
@@ -57,21 +60,21 @@ public class Trie {
 
 	/**
 	 * process the statistics for the entire tree.
-	 * Requires touching all of the nodes within the tree.
-	 * Depth level traversal.
+	 * Requires touching all of the nodes within the tree twice: 
+	 * once to compute the entropies and accumulate the per-depth 
+	 * statistics, once to standardize.
 	 */
 	public void generateStatistics() {
-		statistics = new HashMap<Integer,StatNode>();
+		statistics = new StatNode[maxDepthSeen + 1];
 
 		for (int i = 1; i <= maxDepthSeen; ++i) {
-			statistics.put(new Integer(i), new StatNode());
+			statistics[i] = new StatNode();
 		}
 
 		fillStatistics(statistics);
 
 		for (int i = 1; i <= maxDepthSeen; ++i) {
-			StatNode s = (StatNode) statistics.get(new Integer(i));
-			s.calculate();
+			statistics[i].calculate();
 		}
 		standardize(statistics);
 	}
@@ -82,19 +85,19 @@ public class Trie {
 	 */
 	public void printStats(int depth) {
 		if (depth != -1) {
-			StatNode s = (StatNode) statistics.get(new Integer(depth));
-			s.print(depth);
+			statistics[depth].print(depth);
 			return;
 		}
 
 		for (int i = 1; i <= maxDepthSeen; ++i) {
-			StatNode s = (StatNode) statistics.get(new Integer(i));
-			s.print(i);
+			statistics[i].print(i);
 		}
 	}	
 
 	public StatNode getStatNode(int depth) {
-		return statistics.get(depth);
+		if (depth < 0 || depth >= statistics.length)
+			return null;
+		return statistics[depth];
 	}	
 	
 	/**
@@ -105,37 +108,53 @@ public class Trie {
 	 * @param count
 	 */
 	public Trie put(List<String> sequence, double count)  { 
-		maxDepthSeen = Math.max(maxDepthSeen, sequence.size());
-		return put(new LinkedList<String>(), sequence, count);
+		return put(sequence, 0, sequence.size(), count);
 	}
 	
 	/**
-	 * 
-	 * @param prefix
-	 * @param suffix
+	 * insert tokens[start..end) by walking down from this node,
+	 * adding count to every node on the path (including this one).
+	 * Nothing is copied; the prefix of a node is only rebuilt from
+	 * the parent links when it is asked for (see getPrefix).
+	 * @param tokens
+	 * @param start
+	 * @param end
 	 * @param count
+	 * @return the node for the whole sequence
 	 */
-	public Trie put(List<String> prefix, List<String> suffix, double count) { 
-		this.prefix = prefix;
-		this.freq += count;
+	public Trie put(List<String> tokens, int start, int end, double count) { 
+		maxDepthSeen = Math.max(maxDepthSeen, end - start);
 		
-		//System.out.println("Pre " + prefix + " Suf " + suffix + " Freq " + freq);
-		if (suffix != null && suffix.size() > 0) { 
-			String obj = suffix.get(0);
-			Trie t = children.get(obj);
+		Trie node = this;
+		node.freq += count;
+		for (int i = start; i < end; i++) {
+			String obj = tokens.get(i);
+			Trie t = node.children.get(obj);
 			if (t == null) { 
 				t = new Trie();
-				children.put(obj, t);
+				t.parent = node;
+				t.symbol = obj;
+				node.children.put(obj, t);
 			}
-
-			List<String> newPrefix = new ArrayList<String>(prefix);
-			newPrefix.add(obj);
 			
-			List<String> newSuffix = new ArrayList<String>(suffix.subList(1, suffix.size()));
-			return t.put(newPrefix, newSuffix, count);
-		} else { 
-			return this;
+			node = t;
+			node.freq += count;
+		}
+		
+		return node;
+	}
+	
+	/**
+	 * rebuild the sequence leading to this node from the parent links
+	 * @return
+	 */
+	public List<String> getPrefix() {
+		ArrayList<String> result = new ArrayList<String>();
+		for (Trie t = this; t.parent != null; t = t.parent) {
+			result.add(t.symbol);
 		}
+		Collections.reverse(result);
+		return result;
 	}
 
 	protected void calculateEntropy() {
@@ -161,69 +180,148 @@ public class Trie {
 		}
 	}
 	
-	// this will get called on the root node, passing total frequency down the tree
-	protected void calculateInternalEntropy() {
-		if (probability == -1) { // this means we are the root node
-			for (Trie child : children.values()) {
-				child.probHelper(freq);
-			}
-		} // else do nothing, it's already there
-	}
-	
-	protected void probHelper(double totalFrequency) {
-		probability = freq / totalFrequency;
-		internalEntropy = -Math.log(probability);
+	/**
+	 * called on the root node: computes the entropies of every node and 
+	 * adds them to the statistics for its depth. Each child of the root
+	 * is accumulated separately (in parallel for large tries, see 
+	 * ParallelTrieBuilder) and the results are merged in children.values() 
+	 * order, so the statistics don't depend on the number of threads.
+	 */
+	public void fillStatistics(StatNode[] stats) {
+		calculateEntropy();
 		
-		for (Trie child : children.values()) {
-			child.probHelper(totalFrequency);
+		final Trie[] subtries = children.values().toArray(new Trie[children.size()]);
+		final StatNode[][] partial = new StatNode[subtries.length][stats.length];
+		final double totalFrequency = freq;
+		
+		List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+		for (int i = 0; i < subtries.length; i++) {
+			final int k = i;
+			tasks.add(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					for (int d = 1; d < partial[k].length; d++)
+						partial[k][d] = new StatNode();
+					subtries[k].fillStatistics(partial[k], totalFrequency);
+				}
+			});
 		}
-	}
-
-	public void fillStatistics(HashMap<Integer,StatNode> stats) {
-		calculateInternalEntropy();
-		calculateEntropy();
-		if (prefix != null && !prefix.isEmpty()) {
-			StatNode stat = (StatNode) stats.get(new Integer(prefix.size()));
-			stat.frequencies.add(new Double(freq));
-			stat.internalEntropies.add(internalEntropy);
-			stat.boundaryEntropies.add(new Double(boundaryEntropy));
+		ParallelTrieBuilder.run(tasks, freq);
+		
+		for (int i = 0; i < subtries.length; i++) {
+			for (int d = 1; d < stats.length; d++) 
+				stats[d].merge(partial[i][d]);
 		}
+	}
+	
+	/**
+	 * fills in the subtree of a child of the root
+	 */
+	protected void fillStatistics(final StatNode[] stats, final double totalFrequency) {
+		walk(new TrieVisitor() {
+			public boolean visit(Trie node, int length) {
+				node.calculateEntropy();
+				node.probability = node.freq / totalFrequency;
+				node.internalEntropy = -Math.log(node.probability);
+				stats[length + 1].add(node.freq, node.internalEntropy, node.boundaryEntropy);
+				return true;
+			}
+		});
+	}
 
-		if (children.size() == 0) return;
+	public void standardize(final StatNode[] stats) {
+		List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+		for (final Trie t : children.values()) {
+			tasks.add(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
 
-		for (Trie t : children.values()) { 
-			t.fillStatistics(stats);
+				@Override
+				protected void compute() {
+					t.walk(new TrieVisitor() {
+						public boolean visit(Trie node, int length) {
+							node.standardize(stats[length + 1]);
+							return true;
+						}
+					});
+				}
+			});
 		}
+		ParallelTrieBuilder.run(tasks, freq);
 	}
-
-	public void standardize(HashMap<Integer,StatNode> stats) {
-		if (prefix != null && !prefix.isEmpty()) {
-			StatNode stat = (StatNode) stats.get(new Integer(prefix.size()));
-			stdFreq = (stat.stdDevFreq == 0) ? 0 : (freq - stat.meanFreq) / stat.stdDevFreq;
-			stdInternalEntropy = (stat.stdDevIntEnt == 0) ? 0 : (internalEntropy - stat.meanIntEnt) / stat.stdDevIntEnt;
-			stdBoundaryEntropy = (stat.stdDevEnt == 0) ? 0 : (boundaryEntropy - stat.meanEnt) / stat.stdDevEnt;
+	
+	protected void standardize(StatNode stat) {
+		stdFreq = (stat.stdDevFreq == 0) ? 0 : (freq - stat.meanFreq) / stat.stdDevFreq;
+		stdInternalEntropy = (stat.stdDevIntEnt == 0) ? 0 : (internalEntropy - stat.meanIntEnt) / stat.stdDevIntEnt;
+		stdBoundaryEntropy = (stat.stdDevEnt == 0) ? 0 : (boundaryEntropy - stat.meanEnt) / stat.stdDevEnt;
+	}
+	
+	/**
+	 * Visits this node and everything below it in depth first order
+	 * (the order of children.values()), using an explicit stack so that
+	 * deep tries can't overflow the call stack.
+	 * @param visitor
+	 */
+	public void walk(TrieVisitor visitor) {
+		Trie[] nodes = new Trie[16];
+		int[] lengths = new int[16];
+		int top = 0;
+		nodes[top] = this;
+		lengths[top++] = 0;
+		
+		ArrayList<Trie> buffer = new ArrayList<Trie>();
+		while (top > 0) {
+			Trie node = nodes[--top];
+			int length = lengths[top];
+			if (!visitor.visit(node, length) || node.children.isEmpty()) 
+				continue;
+			
+			buffer.clear();
+			buffer.addAll(node.children.values());
+			if (top + buffer.size() > nodes.length) {
+				int capacity = Math.max(2 * nodes.length, top + buffer.size());
+				nodes = Arrays.copyOf(nodes, capacity);
+				lengths = Arrays.copyOf(lengths, capacity);
+			}
+			
+			// pushed in reverse so they come off the stack in order
+			for (int i = buffer.size() - 1; i >= 0; i--) {
+				nodes[top] = buffer.get(i);
+				lengths[top++] = length + 1;
+			}
 		}
-
-		if (children.size() == 0) return;
-
-		for (Trie t : children.values()) {
-			t.standardize(stats);
+	}
+	
+	/**
+	 * Walks down from this node along the sequence.
+	 * @param sequence
+	 * @return the node for the sequence, or null if it is not in the trie
+	 */
+	public Trie find(List<String> sequence) {
+		Trie node = this;
+		if (sequence == null) 
+			return node;
+		
+		for (int i = 0; i < sequence.size() && node != null; i++) {
+			node = node.children.get(sequence.get(i));
 		}
+		return node;
 	}
 
 	public HashMap<String,Integer> getWords() {
-		HashMap<String, Integer> result = new HashMap<String,Integer>();
+		final Trie start = this;
+		final HashMap<String, Integer> result = new HashMap<String,Integer>();
 		
-		for (Map.Entry<String,Trie> e : children.entrySet() ) {
-			String child = e.getKey();
-			Trie subTrie = e.getValue();
-			
-			if (child.equals("*")) {
-				result.put(Utils.fromList(subTrie.prefix), (int) subTrie.freq);
-			} else {
-				result.putAll(subTrie.getWords());
+		walk(new TrieVisitor() {
+			public boolean visit(Trie node, int length) {
+				if (node != start && node.symbol.equals("*")) {
+					result.put(Utils.fromList(node.getPrefix()), (int) node.freq);
+					return false;
+				}
+				return true;
 			}
-		}
+		});
 		
 		return result;
 	}
@@ -234,30 +332,21 @@ public class Trie {
 	 * @return
 	 */
 	public HashMap<String,Trie> getChildren(List<String> sequence) {
-		if (sequence == null || sequence.size() == 0) {
-			return children;
-		}
-
-		String child = sequence.get(0);
-		if (!children.containsKey(child))
+		Trie t = find(sequence);
+		if (t == null)
 			return new HashMap<String,Trie>();
+		return t.children;
+	}
 
-		Trie t = children.get(child);
-		List<String> suffix = sequence.subList(1, sequence.size());
-		return t.getChildren(suffix);
+	public int getNumChildren(List<String> sequence) {
+		return getChildren(sequence).size();
 	}
 
 	public double getFreq(List<String> sequence) {
-		if (sequence == null || sequence.size() == 0) 
-			return freq;
-
-		String child = sequence.get(0);
-		if (!children.containsKey(child))
+		Trie t = find(sequence);
+		if (t == null)
 			return 0;
-
-		Trie t = children.get(child);
-		List<String> suffix = sequence.subList(1,sequence.size());
-		return t.getFreq(suffix);
+		return t.freq;
 	}
 	
 	/**
@@ -266,32 +355,20 @@ public class Trie {
 	 * @return
 	 */
 	public double getStdFreq(List<String> sequence) {
-		if (sequence == null || sequence.size() == 0) 
-			return stdFreq;
-
-		String child = sequence.get(0);
-		if (!children.containsKey(child))
+		Trie t = find(sequence);
+		if (t == null)
 			return 0;
-
-		Trie t = children.get(child);
-		List<String> suffix = sequence.subList(1,sequence.size());
-		return t.getStdFreq(suffix);
+		return t.stdFreq;
 	}
 
 	public double getStdIntEntropy(List<String> sequence) {
-		if (sequence == null || sequence.isEmpty()) 
-			return stdInternalEntropy;
-		
-		String child = sequence.get(0);
-		if (!children.containsKey(child))
-			return Double.POSITIVE_INFINITY;   
-						// NB: zero is OK here because the stdIntEnropy is always negative. Really?
-						// NO NO NO the STANDARD entropy is not always negative - it's a standard normal dist
-						// ... dumbass!
-
-		Trie t = children.get(child);
-		List<String> suffix = sequence.subList(1,sequence.size());
-		return t.getStdIntEntropy(suffix);
+		Trie t = find(sequence);
+		if (t == null)
+			return Double.POSITIVE_INFINITY;
+			// NB: zero is OK here because the stdIntEnropy is always negative. Really?
+			// NO NO NO the STANDARD entropy is not always negative - it's a standard normal dist
+			// ... dumbass!
+		return t.stdInternalEntropy;
 	}
 	
 	/**
@@ -300,16 +377,10 @@ public class Trie {
 	 * @return
 	 */
 	public double getStdEntropy(List<String> sequence) {
-		if (sequence == null || sequence.size() == 0) 
-			return stdBoundaryEntropy;
-
-		String child = sequence.get(0);
-		if (!children.containsKey(child))
+		Trie t = find(sequence);
+		if (t == null)
 			return 0;
-
-		Trie t = children.get(child);
-		List<String> suffix = sequence.subList(1,sequence.size());
-		return t.getStdEntropy(suffix);
+		return t.stdBoundaryEntropy;
 	}
 
 	/**
@@ -318,16 +389,10 @@ public class Trie {
 	 * @return
 	 */
 	public double getEntropy(List<String> sequence) {
-		if (sequence == null || sequence.size() == 0)
-			return boundaryEntropy;
-
-		String child = sequence.get(0);
-		if (!children.containsKey(child))
+		Trie t = find(sequence);
+		if (t == null)
 			return 0;
-
-		Trie t = children.get(child);
-		List<String> suffix = sequence.subList(1,sequence.size());
-		return t.getEntropy(suffix);
+		return t.boundaryEntropy;
 	}
 
 
@@ -337,24 +402,18 @@ public class Trie {
 	 * @return
 	 */
 	public List<Double> getCountList(List<String> sequence) { 
-		if (sequence == null || sequence.size() == 0) {
-			List<Double> l = new LinkedList<Double>();
-			l.add(new Double(freq));
+		List<Double> l = new LinkedList<Double>();
+		l.add(new Double(freq));
+		if (sequence == null) 
 			return l;
+		
+		Trie t = this;
+		for (String child : sequence) {
+			t = t.children.get(child);
+			if (t == null)
+				return null;
+			l.add(new Double(t.freq));
 		}
-
-		String child = sequence.get(0);
-		if (!children.containsKey(child))
-			return null;
-
-		Trie t = children.get(child);
-		List<String> suffix = sequence.subList(1,sequence.size());
-		List<Double> l = t.getCountList(suffix);
-		if (l == null) 
-			return null;
-
-		if (!prefix.equals(""))
-			l.add(0, new Double(freq));
 		return l;
 	}
 
@@ -378,17 +437,9 @@ public class Trie {
 	 * @param nf
 	 */
 	public void printSequence(List<String> sequence) {
-		if (sequence != null && sequence.size() > 0) {
-			String child = sequence.get(0);
-
-			if (!children.containsKey(child))
-				return;
-
-			Trie t = children.get(child);
-			t.printSequence(sequence.subList(1, sequence.size()));
-		} else {
-			printData("");
-		}
+		Trie t = find(sequence);
+		if (t != null) 
+			t.printData("");
 	}
 
 	/**
@@ -398,7 +449,7 @@ public class Trie {
 	 */
 	protected void printData(String tab) {
 		System.out.print(tab);
-		for (String t : prefix) 
+		for (String t : getPrefix()) 
 			System.out.print(t + " ");
 		System.out.print("Freq: " + NF.format(freq) + " ");
 		System.out.print("StdFreq: " + NF.format(stdFreq) + " ");
@@ -415,12 +466,16 @@ public class Trie {
 	 * @param nf
 	 * @param all
 	 */
-	public void display(String tab, boolean all) {
-		printData(tab);
-
-		if (children.size() == 0 || !all) return;
-
-		printChildren(tab, all);
+	public void display(final String tab, final boolean all) {
+		walk(new TrieVisitor() {
+			public boolean visit(Trie node, int length) {
+				StringBuilder indent = new StringBuilder(tab);
+				for (int i = 0; i < length; i++) 
+					indent.append(' ');
+				node.printData(indent.toString());
+				return all;
+			}
+		});
 	}
 
 	protected void printChildren(String tab, boolean all) {
@@ -436,18 +491,9 @@ public class Trie {
 	 * @param all
 	 */
 	public void printExtensions(List<String> sequence, boolean all) {
-		if (sequence == null || sequence.size() == 0) {
-			printChildren("", all);
-			return;
-		}
-
-		String child = sequence.get(0);
-		if (!children.containsKey(child))
-			return;
-
-		Trie t = children.get(child);
-		t.printExtensions(sequence.subList(1, sequence.size()), all);
-
+		Trie t = find(sequence);
+		if (t != null) 
+			t.printChildren("", all);
 	}
 
 	public void levelOrder() {
@@ -487,7 +533,7 @@ public class Trie {
 	public void xmlDetail(PrintWriter out) { 
 		out.write("  <TrieNode ");
 		out.write("prefix=\"");
-		Printer.printList(prefix, out);
+		Printer.printList(getPrefix(), out);
 		out.write("\" ");
 		out.write("freq=\"" + freq + "\" ");
 		out.write("/>\n");
@@ -506,17 +552,16 @@ public class Trie {
 	 * @param windowSize
 	 */
 	public static void addAll(Trie root, List<String> tokens, int windowSize) {
+		if (ParallelTrieBuilder.PARALLELISM > 1 && tokens.size() >= ParallelTrieBuilder.MIN_PARALLEL_SIZE) {
+			ParallelTrieBuilder.addAll(root, tokens, windowSize);
+			return;
+		}
+		
 		root.depth = windowSize;
 		
-		for (int i = 0; i < tokens.size(); ++i) { 
-			List<String> tmp = null;
-			if (i+windowSize > tokens.size()) { 
-				tmp = tokens.subList(i, tokens.size());
-			} else { 
-				tmp = tokens.subList(i, i+windowSize);
-			}
-			
-			root.put(tmp, 1);
+		int size = tokens.size();
+		for (int i = 0; i < size; ++i) { 
+			root.put(tokens, i, Math.min(i+windowSize, size), 1);
 		}		
 	}
 	
@@ -536,9 +581,7 @@ public class Trie {
 	}
 	
 	public static Trie buildBackwardTrie(List<String> tokens, int depth) {
-		ArrayList<String> backwardCorpus = new ArrayList<String>(tokens);
-		Collections.reverse(backwardCorpus);
-		return buildTrie(backwardCorpus, depth);
+		return buildTrie(ReversedList.of(tokens), depth);
 	}
 	
 	public static void extractWords(Trie t) {
@@ -619,17 +662,80 @@ public class Trie {
 		}
 	}
 
-	public double getIntEntropy(List<String> sequence) {
-		if (sequence == null || sequence.size() == 0)
-			return internalEntropy;
+	public TrieCursor cursor() {
+		return new Cursor(this);
+	}
+	
+	/**
+	 * cursor over the nodes of this trie, the current node is null 
+	 * once the cursor has walked off the trie
+	 */
+	public static class Cursor implements TrieCursor {
+		Trie root;
+		Trie node;
+		int depth;
+		
+		public Cursor(Trie root) {
+			this.root = root;
+			this.node = root;
+		}
+		
+		public void reset() {
+			node = root;
+			depth = 0;
+		}
+		
+		public void set(TrieCursor other) {
+			Cursor c = (Cursor) other;
+			node = c.node;
+			depth = c.depth;
+		}
+		
+		public boolean advance(String symbol) {
+			depth++;
+			if (node != null) 
+				node = node.children.get(symbol);
+			return node != null;
+		}
+		
+		public Trie getNode() {
+			return node;
+		}
+		
+		public boolean isValid() {
+			return node != null;
+		}
+		
+		public int depth() {
+			return depth;
+		}
+		
+		public double freq() {
+			return (node == null) ? 0 : node.freq;
+		}
+		
+		public double entropy() {
+			return (node == null) ? 0 : node.boundaryEntropy;
+		}
+		
+		public double stdEntropy() {
+			return (node == null) ? 0 : node.stdBoundaryEntropy;
+		}
+		
+		public double stdIntEntropy() {
+			return (node == null) ? Double.POSITIVE_INFINITY : node.stdInternalEntropy;
+		}
+		
+		public int numChildren() {
+			return (node == null) ? 0 : node.children.size();
+		}
+	}
 
-		String child = sequence.get(0);
-		if (!children.containsKey(child))
+	public double getIntEntropy(List<String> sequence) {
+		Trie t = find(sequence);
+		if (t == null)
 			return 0;
-
-		Trie t = children.get(child);
-		List<String> suffix = sequence.subList(1,sequence.size());
-		return t.getIntEntropy(suffix);
+		return t.internalEntropy;
 	}
 	
 }
@@ -0,0 +1,200 @@
+package edu.arizona.ve.trie;
+
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import edu.arizona.ve.corpus.Corpus;
+import edu.arizona.ve.util.ReversedList;
+
+/**
+ * Forward and backward tries shared between everything that runs on the
+ * same corpus (Engine, EntropyMDL, PhonemeToMorpheme, ...). Tries are keyed
+ * by the content of the corpus, the direction and the depth.
+ *
+ * Only a trie of exactly the requested depth is served: the nodes at the
+ * last level of a trie are leaves with no entropy, so a deeper trie would
+ * change the boundary entropy of the longest sequences.
+ *
+ * Tries are only softly reachable, so the garbage collector can reclaim
+ * them, and the least recently used ones are dropped when the estimated
+ * size of the cache goes over MEMORY_BUDGET. The corpus is only weakly
+ * reachable from the cache, and entries go away with it. Cached tries are
+ * shared and must not be modified.
+ */
+public class TrieCache {
+
+	public enum Direction { FORWARD, BACKWARD }
+
+	/** TriePair goes through the cache unless this is false */
+	public static boolean ENABLED = true;
+
+	/** Estimated bytes the cache may hold */
+	public static long MEMORY_BUDGET = Runtime.getRuntime().maxMemory() / 4;
+
+	/** Rough size of a Trie node and its entry in the parent's HashMap */
+	public static final int BYTES_PER_NODE = 160;
+
+	private static TrieCache _default;
+
+	public static synchronized TrieCache getDefault() {
+		if (_default == null)
+			_default = new TrieCache();
+		return _default;
+	}
+
+	private class Entry {
+		WeakReference<List<String>> tokens;
+		int hash;
+		int size;
+		Direction direction;
+		int depth;
+
+		SoftReference<Trie> ref;
+
+		long bytes;
+		long lastUsed;
+
+		boolean matches(List<String> tokens, int hash, Direction direction, int depth) {
+			if (this.hash != hash || this.size != tokens.size() || this.direction != direction || this.depth != depth)
+				return false;
+			List<String> cached = this.tokens.get();
+			return cached == tokens || (cached != null && cached.equals(tokens));
+		}
+
+		boolean isLive() {
+			return ref.get() != null && tokens.get() != null;
+		}
+	}
+
+	List<Entry> entries = new ArrayList<Entry>();
+	long clock;
+
+	public Trie get(Corpus c, Direction direction, int depth) {
+		return get(c.getCleanChars(), direction, depth);
+	}
+
+	/**
+	 * The trie of tokens (reversed for BACKWARD) to the given depth, built
+	 * and cached if necessary.
+	 */
+	public Trie get(List<String> tokens, Direction direction, int depth) {
+		Trie trie = lookup(tokens, direction, depth);
+		if (trie == null)
+			trie = put(tokens, direction, depth, build(tokens, direction, depth));
+		return trie;
+	}
+
+	/**
+	 * @return the cached trie, or null if there is none of that depth
+	 */
+	public Trie lookup(List<String> tokens, Direction direction, int depth) {
+		int hash = tokens.hashCode();
+		synchronized (this) {
+			Entry e = find(tokens, hash, direction, depth);
+			return (e == null) ? null : e.ref.get();
+		}
+	}
+
+	/**
+	 * the live entry for the request, if any
+	 */
+	private Entry find(List<String> tokens, int hash, Direction direction, int depth) {
+		Entry found = null;
+		for (Iterator<Entry> i = entries.iterator(); i.hasNext(); ) {
+			Entry e = i.next();
+			if (!e.isLive()) {
+				i.remove();
+				continue;
+			}
+			if (found == null && e.matches(tokens, hash, direction, depth))
+				found = e;
+		}
+
+		if (found != null)
+			found.lastUsed = ++clock;
+		return found;
+	}
+
+	/**
+	 * Adds a trie built by build(tokens, direction, depth).
+	 * @return the trie to use, which is an equivalent cached one if
+	 * another thread got there first
+	 */
+	public Trie put(List<String> tokens, Direction direction, int depth, Trie trie) {
+		int hash = tokens.hashCode();
+		long bytes = (long) countNodes(trie) * BYTES_PER_NODE;
+
+		synchronized (this) {
+			Entry e = find(tokens, hash, direction, depth);
+			Trie cached = (e == null) ? null : e.ref.get();
+			if (cached != null)
+				return cached;
+
+			add(tokens, hash, direction, depth, trie, bytes);
+			trim();
+			return trie;
+		}
+	}
+
+	private Entry add(List<String> tokens, int hash, Direction direction, int depth, Trie trie, long bytes) {
+		Entry e = new Entry();
+		e.tokens = new WeakReference<List<String>>(tokens);
+		e.hash = hash;
+		e.size = tokens.size();
+		e.direction = direction;
+		e.depth = depth;
+		e.ref = new SoftReference<Trie>(trie);
+		e.bytes = bytes;
+		e.lastUsed = ++clock;
+		entries.add(e);
+		return e;
+	}
+
+	/**
+	 * drops the least recently used tries until the cache fits in the
+	 * budget
+	 */
+	private void trim() {
+		long total = 0;
+		for (Entry e : entries)
+			total += e.bytes;
+
+		while (total > MEMORY_BUDGET) {
+			Entry oldest = null;
+			for (Entry e : entries) {
+				if (oldest == null || e.lastUsed < oldest.lastUsed)
+					oldest = e;
+			}
+			if (oldest == null)
+				return;
+
+			entries.remove(oldest);
+			total -= oldest.bytes;
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public static Trie build(List<String> tokens, Direction direction, int depth) {
+		if (direction == Direction.BACKWARD) {
+			tokens = ReversedList.of(tokens);
+		}
+		return Trie.buildTrie(tokens, depth);
+	}
+
+	private static int countNodes(Trie trie) {
+		final int[] count = new int[1];
+		trie.walk(new TrieVisitor() {
+			public boolean visit(Trie node, int length) {
+				count[0]++;
+				return true;
+			}
+		});
+		return count[0];
+	}
+}
@@ -0,0 +1,40 @@
+package edu.arizona.ve.trie;
+
+/**
+ * A position in an {@link NGramIndex} that is moved down one symbol at a
+ * time. This lets an expert read the statistics of every prefix of a 
+ * window in a single descent, instead of looking each prefix up from the
+ * root.
+ * 
+ * Once advance() leaves the index the cursor is invalid, and until the next
+ * reset() it answers with the defaults of NGramIndex for missing sequences.
+ */
+public interface TrieCursor {
+
+	/** Moves back to the root (the empty sequence) */
+	public void reset();
+	
+	/** Moves to the position of another cursor over the same index */
+	public void set(TrieCursor other);
+	
+	/**
+	 * Extends the current sequence by one symbol.
+	 * @return false if the extended sequence is not in the index
+	 */
+	public boolean advance(String symbol);
+	
+	public boolean isValid();
+	
+	/** The length of the current sequence */
+	public int depth();
+	
+	public double freq();
+	
+	public double entropy();
+	
+	public double stdEntropy();
+	
+	public double stdIntEntropy();
+	
+	public int numChildren();
+}
@@ -0,0 +1,86 @@
+package edu.arizona.ve.trie;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import edu.arizona.ve.corpus.Corpus;
+import edu.arizona.ve.trie.TrieCache.Direction;
+
+/**
+ * The forward and backward tries of a corpus, built at the same time in the
+ * ParallelTrieBuilder pool. start() returns right away; getForward() and
+ * getBackward() wait for their trie to be finished. With PARALLELISM 1 both
+ * tries are built by start() itself.
+ *
+ * Tries already in the TrieCache are not built again, and new ones are
+ * added to it (unless TrieCache.ENABLED is false).
+ */
+public class TriePair {
+
+	Future<Trie> forward;
+	Future<Trie> backward;
+
+	/**
+	 * Starts building the tries that Corpus.makeForwardTrie and
+	 * Corpus.makeBackwardTrie would return.
+	 */
+	public static TriePair start(Corpus c, int depth) {
+		return start(c.getCleanChars(), depth);
+	}
+
+	/**
+	 * @param tokens the tokens of the forward trie, reversed for the
+	 * backward trie
+	 * @param depth
+	 */
+	public static TriePair start(List<String> tokens, int depth) {
+		TrieCache cache = TrieCache.ENABLED ? TrieCache.getDefault() : null;
+
+		TriePair pair = new TriePair();
+		pair.forward = start(cache, tokens, Direction.FORWARD, depth);
+		pair.backward = start(cache, tokens, Direction.BACKWARD, depth);
+		return pair;
+	}
+
+	private static Future<Trie> start(final TrieCache cache, final List<String> tokens, final Direction direction, final int depth) {
+		final Trie cached = (cache == null) ? null : cache.lookup(tokens, direction, depth);
+		Callable<Trie> builder = new Callable<Trie>() {
+			public Trie call() {
+				if (cached != null)
+					return cached;
+
+				Trie trie = TrieCache.build(tokens, direction, depth);
+				return (cache == null) ? trie : cache.put(tokens, direction, depth, trie);
+			}
+		};
+
+		if (cached == null && ParallelTrieBuilder.PARALLELISM > 1)
+			return ParallelTrieBuilder.getPool().submit(builder);
+
+		FutureTask<Trie> task = new FutureTask<Trie>(builder);
+		task.run();
+		return task;
+	}
+
+	public Trie getForward() {
+		return get(forward);
+	}
+
+	public Trie getBackward() {
+		return get(backward);
+	}
+
+	private static Trie get(Future<Trie> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package edu.arizona.ve.trie;
+
+/**
+ * Called for every node by Trie.walk, so that new statistics or reports
+ * can be computed over a trie without adding another recursive method to
+ * Trie.
+ */
+public interface TrieVisitor {
+
+	/**
+	 * @param node the current node
+	 * @param length the length of the sequence leading to node, counted
+	 * from the node the walk started at
+	 * @return false to skip the children of node
+	 */
+	public boolean visit(Trie node, int length);
+}
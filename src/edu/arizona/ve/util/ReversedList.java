@@ -0,0 +1,41 @@
+package edu.arizona.ve.util;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A read-only view of a list in reverse order: get(i) is element
+ * size()-1-i of the underlying list, so nothing is copied. Changes to the
+ * underlying list show through the view.
+ */
+public class ReversedList<E> extends AbstractList<E> implements RandomAccess {
+
+	private final List<E> list;
+
+	private ReversedList(List<E> list) {
+		this.list = list;
+	}
+
+	/**
+	 * The reverse of list, which is the original list when it is
+	 * itself a ReversedList
+	 */
+	public static <E> List<E> of(List<E> list) {
+		if (list instanceof ReversedList)
+			return ((ReversedList<E>) list).list;
+		return new ReversedList<E>(list);
+	}
+
+	@Override
+	public E get(int index) {
+		if (index < 0 || index >= list.size())
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + list.size());
+		return list.get(list.size() - 1 - index);
+	}
+
+	@Override
+	public int size() {
+		return list.size();
+	}
+}
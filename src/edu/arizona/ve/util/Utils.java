@@ -12,6 +12,7 @@ import java.util.Vector;
 import java.util.Collection;
 
 import edu.arizona.ve.corpus.Corpus;
+import edu.arizona.ve.corpus.CutPoints;
 /**
 *
 * @author  Daniel Hewlett
@@ -117,28 +118,23 @@ public class Utils {
         return makeArray(cutList);
     }
 	
+	/**
+	 * @deprecated use CutPoints.union(forward, backward.reverse())
+	 */
+	@Deprecated
 	public static boolean[] combineUnion(boolean[] forward, boolean[] backward) {
 		if (forward.length != backward.length)
 			System.out.println("ERROR in COMBINE!");
 		
-	    boolean[] reversed = new boolean[backward.length];
-	    for (int i = 0; i < backward.length; i++) {
-	    	reversed[backward.length - i - 1] = backward[i];
-	    }	
-	    
-	    boolean[] bidiCutArray = new boolean[forward.length];
-	    for (int i = 0; i < forward.length; i++) 
-	    	bidiCutArray[i] = forward[i] || reversed[i];
-	    
-	    return bidiCutArray;
+		return CutPoints.union(CutPoints.fromArray(forward), CutPoints.fromArray(backward).reverse()).toArray();
 	}
 	
+	/**
+	 * @deprecated use CutPoints.union
+	 */
+	@Deprecated
 	public static boolean[] simpleUnion(boolean[] first, boolean[] second) {
-		boolean[] union = new boolean[first.length];
-	    for (int i = 0; i < first.length; i++) 
-	    	union[i] = first[i] || second[i];
-	    
-	    return union;
+		return CutPoints.union(CutPoints.fromArray(first), CutPoints.fromArray(second)).toArray();
 	}
 	
 	public static String join(String[] strings, String delimiter) {